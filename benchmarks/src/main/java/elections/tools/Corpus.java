@@ -0,0 +1,36 @@
+package elections.tools;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+// Loads the bundled imgs/*.jpg from the webapp jar for the benchmarks.
+class Corpus {
+
+	// the image scaled up by an integer factor, so the small corpus images can
+	// stand in for larger uploads. The result has the same 3 byte BGR layout
+	// ImageIO gives for JPEGs, so any conversion cost stays in the measurement.
+	static BufferedImage load(String name, int scale) throws IOException{
+		InputStream in = Corpus.class.getResourceAsStream("/imgs/" + name + ".jpg");
+		if(in == null){
+			throw new IOException("imgs/" + name + ".jpg is not on the classpath");
+		}
+		BufferedImage img;
+		try {
+			img = ImageIO.read(in);
+		} finally {
+			in.close();
+		}
+		BufferedImage scaled = new BufferedImage(img.getWidth()*scale, img.getHeight()*scale, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(img, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+		g.dispose();
+		return scaled;
+	}
+
+}
@@ -0,0 +1,103 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The per pixel helpers and whole image passes the segmenters are built from.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+	@Param({"obama-r-0"})
+	String image;
+
+	@Param({"1", "4"})
+	int scale;
+
+	BufferedImage img;
+	int[] rgb;
+	float[] h, s, v;
+	float[] pixelHSV;
+	float[] ch, cs, cv;
+	BitSet foreground;
+	RegionTables regions;
+
+	@Setup
+	public void load() throws IOException{
+		img = Corpus.load(image, scale);
+		rgb = Rasters.data(Rasters.toIntRGB(img));
+		h = new float[rgb.length];
+		s = new float[rgb.length];
+		v = new float[rgb.length];
+		int pixel = rgb[rgb.length/3];
+		pixelHSV = Color.RGBtoHSB((pixel >> 16) & 0xff, (pixel >> 8) & 0xff, pixel & 0xff, null);
+		int[] centroids = {rgb[0], rgb[rgb.length/4], rgb[rgb.length/2], rgb[3*rgb.length/4], rgb[rgb.length-1]};
+		ch = new float[5];
+		cs = new float[5];
+		cv = new float[5];
+		KMeansEngine.hsv(centroids, ch, cs, cv, new float[3]);
+		foreground = FeatureExtractor.fit(image, rgb, img.getWidth(), img.getHeight(), new SegmentationOptions()).getForeground();
+		regions = RegionTables.build(rgb, img.getWidth(), img.getHeight(), foreground);
+	}
+
+	// one pixel.
+	@Benchmark
+	public int nearest(){
+		return KMeansEngine.nearest(pixelHSV[0], pixelHSV[1], pixelHSV[2], ch, cs, cv);
+	}
+
+	// whole image passes.
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public BufferedImage toIntRGB(){
+		return Rasters.toIntRGB(img);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void hsvPlanes(Blackhole bh){
+		KMeansEngine.hsv(rgb, h, s, v);
+		bh.consume(h);
+	}
+
+	// the region features: one scan for the quadrants, or the tables once and
+	// then any rectangle.
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ImageStatistics statistics(){
+		return ImageStatistics.compute(rgb, img.getWidth(), img.getHeight(), foreground);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public RegionTables regionTables(){
+		return RegionTables.build(rgb, img.getWidth(), img.getHeight(), foreground);
+	}
+
+	@Benchmark
+	public void regionGrid8(Blackhole bh){
+		bh.consume(regions.getGrid(8));
+		bh.consume(regions.getDifferenceGrid(8));
+	}
+
+}
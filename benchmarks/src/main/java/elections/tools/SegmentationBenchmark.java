@@ -0,0 +1,108 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End to end segmentation of one image.
+//
+// scale multiplies both image dimensions (1 is the ~0.05MP corpus image, 4 is
+// ~1MP, 8 is ~4MP). mode picks the exact path, the exact path without distance
+// bounds (plain), a pyramid level (pyramid2) or a quantized palette
+// (quantized6). Scores are images/second with a pixels counter for
+// pixels/second; run with -bm avgt for the latency per image instead, -t N to
+// see how concurrent requests scale and -prof gc for the allocation rate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentationBenchmark {
+
+	@Param({"obama-r-0", "romney-c-6"})
+	String image;
+
+	@Param({"1", "4", "8"})
+	int scale;
+
+	@Param({"exact", "pyramid2", "quantized6"})
+	String mode;
+
+	@Param({"1", "4"})
+	int parallelism;
+
+	BufferedImage img;
+	int[] seeds;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Pixels {
+		public long pixels;
+
+		@Setup(Level.Iteration)
+		public void reset(){
+			pixels = 0;
+		}
+	}
+
+	@Setup
+	public void load() throws IOException{
+		img = Corpus.load(image, scale);
+		seeds = SegmentationSession.seeds(img, 5, new Random(42));
+	}
+
+	SegmentationOptions options(){
+		SegmentationOptions options = new SegmentationOptions();
+		options.setParallelism(parallelism);
+		if(mode.startsWith("pyramid")){
+			options.setPyramidLevel(Integer.parseInt(mode.substring("pyramid".length())));
+		}else if(mode.startsWith("quantized")){
+			options.setQuantizationBits(Integer.parseInt(mode.substring("quantized".length())));
+		}else if(mode.equals("plain")){
+			options.setBounded(false);
+		}else if(!mode.equals("exact")){
+			throw new IllegalArgumentException("unknown mode " + mode);
+		}
+		return options;
+	}
+
+	// KMeansActions.SegmentImage as the controller calls it (random seeds).
+	@Benchmark
+	public SegmentationResult kMeansActions(Pixels pixels){
+		pixels.pixels += img.getWidth()*img.getHeight();
+		return KMeansActions.SegmentImage(image, img, options());
+	}
+
+	// CombinedKMeansActions.SegmentImage with the face box in the middle third.
+	@Benchmark
+	public SegmentationResult combinedKMeansActions(Pixels pixels){
+		pixels.pixels += img.getWidth()*img.getHeight();
+		int w = img.getWidth()/3, h = img.getHeight()/3;
+		return CombinedKMeansActions.SegmentImage(image, img, w, h, h, w, options());
+	}
+
+	// fixed seeds, so the iteration count (and the time) is the same every run.
+	@Benchmark
+	public SegmentationResult seededSession(Pixels pixels){
+		pixels.pixels += img.getWidth()*img.getHeight();
+		return new SegmentationSession(image, img, seeds,
+				img.getWidth()/2, img.getHeight()/2, img.getWidth()/2, img.getHeight()/2, options()).run();
+	}
+
+}
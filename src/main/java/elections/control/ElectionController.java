@@ -2,25 +2,144 @@ package elections.control;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItem;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Sampling;
+import com.yammer.metrics.core.Summarizable;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.stats.Snapshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.ObjectError;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.servlet.ModelAndView;
+import elections.model.Photo;
 import elections.model.UploadItem;
+import elections.tools.AsyncDiskSnapshotSink;
 import elections.tools.CombinedKMeansActions;
+import elections.tools.FaceDetector;
+import elections.tools.FeatureExtractor;
+import elections.tools.ImageIngest;
+import elections.tools.ImageStatistics;
 import elections.tools.KMeansActions;
+import elections.tools.Rasters;
+import elections.tools.RegionTables;
+import elections.tools.SegmentationJob;
+import elections.tools.SegmentationMetrics;
+import elections.tools.SegmentationCache;
+import elections.tools.SegmentationJobs;
+import elections.tools.SegmentationOptions;
+import elections.tools.SegmentationResult;
+import elections.tools.SvmModel;
 
 @Controller
 public class ElectionController{
 
+	private static final Logger log = LoggerFactory.getLogger(ElectionController.class);
+
+	// the segmentation pages load <iteration>-<image> and final-<image> from here.
+	static final AsyncDiskSnapshotSink segmented =
+			new AsyncDiskSnapshotSink(new File("src/main/resources/segmented"), 64);
+
+	// finished segmentations and features by pixel hash and parameters.
+	// -Delections.cache.mb bounds the memory tier, -Delections.cache.dir adds a disk tier.
+	static final SegmentationCache cache = new SegmentationCache(
+			Integer.getInteger("elections.cache.mb", 64) * 1024L * 1024L,
+			System.getProperty("elections.cache.dir") == null ? null : new File(System.getProperty("elections.cache.dir")));
+
+	// uploads are decoded subsampled to about -Delections.ingest.workingPixels,
+	// within per request byte/pixel limits and a server wide pixel budget.
+	static final ImageIngest ingest = new ImageIngest(
+			Long.getLong("elections.ingest.maxBytes", 32L*1024*1024),
+			Long.getLong("elections.ingest.maxPixels", 50L*1000*1000),
+			Integer.getInteger("elections.ingest.workingPixels", 2*1000*1000),
+			Long.getLong("elections.ingest.inFlightPixels", 64L*1000*1000),
+			Long.getLong("elections.ingest.waitMillis", 10*1000));
+
+	// segmentation jobs run here instead of on Jetty's threads.
+	// -Delections.jobs.workers / -Delections.jobs.queue size the pool.
+	static final SegmentationJobs jobs = new SegmentationJobs(
+			Integer.getInteger("elections.jobs.workers", Runtime.getRuntime().availableProcessors()),
+			Integer.getInteger("elections.jobs.queue", 64),
+			TimeUnit.MINUTES.toMillis(Integer.getInteger("elections.jobs.retain.minutes", 5)));
+
+	// how long a finished job waits for its snapshots to be written.
+	static final long flushMillis = Long.getLong("elections.snapshots.flushMillis", 10*1000);
+
+	// the positive/negative classifier, trained offline with SvmTrainer. The
+	// first /predict reads it from -Delections.svm.model; until there is one
+	// there every /predict looks again and answers 503.
+	static final File svmFile = new File(System.getProperty("elections.svm.model", "src/main/resources/data/svm.model"));
+	private static volatile SvmModel svm;
+
+	// load on the server, next to the SegmentationMetrics timers.
+	static {
+		Metrics.newGauge(ElectionController.class, "queue-depth", new Gauge<Integer>(){
+			public Integer value(){
+				return jobs.getQueueDepth();
+			}
+		});
+		Metrics.newGauge(ElectionController.class, "active-jobs", new Gauge<Integer>(){
+			public Integer value(){
+				return jobs.getActive();
+			}
+		});
+		Metrics.newGauge(ElectionController.class, "in-flight-pixels", new Gauge<Long>(){
+			public Long value(){
+				return ingest.getInFlightPixels();
+			}
+		});
+		Metrics.newGauge(ElectionController.class, "snapshot-queue", new Gauge<Integer>(){
+			public Integer value(){
+				return segmented.getQueued();
+			}
+		});
+		Metrics.newGauge(ElectionController.class, "cache-bytes", new Gauge<Long>(){
+			public Long value(){
+				return cache.getBytes();
+			}
+		});
+	}
+
+	// SegmentationOptions is bound from the request parameters; only its plain
+	// values, never the cache, face detector or snapshot sink the server sets.
+	@InitBinder("segmentationOptions")
+	public void bindOptions(WebDataBinder binder) {
+		binder.setAllowedFields("k", "maxIterations", "minChangedFraction", "maxCentroidShift", "pyramidLevel",
+				"bounded", "quantizationBits", "snapshotInterval", "parallelism", "seed", "seeding", "margin");
+	}
 
 	@RequestMapping(method = RequestMethod.GET, value={"/training"})
 	public ModelAndView training() {
@@ -54,6 +173,55 @@ public class ElectionController{
 				"HSV histogram ",	
 		"pages/histograms-hsv.jsp");
 	}
+
+	// histograms and channel statistics of one of the imgs, for the histogram
+	// pages. With ?quadrants=true the response also has the foreground % per
+	// quadrant, and with ?grid=N (2-16) the foreground % and binary filter
+	// difference of every cell of an N x N grid. Those come out of the
+	// segmentation cache; when the image isn't segmented yet it is queued on
+	// the job pool instead (202 + job, or 503 when the queue is full) and the
+	// same GET answers once the job is DONE.
+	@SuppressWarnings("unchecked")
+	@RequestMapping(method = RequestMethod.GET, value={"/histograms/{image}"})
+	public void histogramData(@PathVariable("image") final String image,
+			@RequestParam(value = "quadrants", defaultValue = "false") boolean quadrants,
+			@RequestParam(value = "grid", defaultValue = "0") int grid,
+			HttpServletResponse response) throws IOException
+	{
+		File file = new File("src/main/resources/imgs/"+image+".jpg");
+		if(!file.isFile()){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no image "+image);
+			return;
+		}
+		if(grid != 0 && (grid < 2 || grid > 16)){
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "grid must be 2 to 16");
+			return;
+		}
+		final BufferedImage img = Rasters.toIntRGB(Rasters.read(file));
+		JSONObject json = toJson(ImageStatistics.compute(Rasters.data(img), img.getWidth(), img.getHeight()));
+		if(quadrants || grid > 0){
+			final SegmentationOptions options = prepare(new SegmentationOptions(), image);
+			RegionTables regions = FeatureExtractor.cachedRegions(image+".jpg", img, options);
+			if(regions == null){
+				submit(image+".jpg", new Callable<SegmentationResult>(){
+					public SegmentationResult call() throws Exception{
+						return FeatureExtractor.segment(image+".jpg", img, options);
+					}
+				}, response);
+				return;
+			}
+			JSONArray q = new JSONArray();
+			for(int i=1; i <= 4; i++){
+				q.add(regions.getQuadrant(i));
+			}
+			json.put("quadrants", q);
+			json.put("binaryFilterDifference", regions.getBinaryFilterDifference());
+			if(grid > 0){
+				json.put("grid", toJson(regions, grid));
+			}
+		}
+		writeJson(response, HttpServletResponse.SC_OK, json);
+	}
 	
 	// Image Processing API----------------------------------------------------------------------
 	// ------------------------------------------------------------------------------------------
@@ -69,37 +237,141 @@ public class ElectionController{
 
 	@ResponseStatus(HttpStatus.OK)
 	@RequestMapping(method = RequestMethod.POST, value = {"/upload","/image-segmentation"})
-	public void create(UploadItem uploadItem, BindingResult result)
+	public void create(UploadItem uploadItem, BindingResult result,
+			SegmentationOptions options, HttpServletResponse response) throws IOException
 	{
 		if (result.hasErrors())
 		{
 			for(ObjectError error : result.getAllErrors())
 			{
-				System.err.println("Error: " + error.getCode() +  " - " + error.getDefaultMessage());
+				log.warn("bad upload: {} - {}", error.getCode(), error.getDefaultMessage());
 			}
 	        
 		}
 		// Some type of file processing...
+		prepare(options, null);
+		ImageIngest.Ingested upload = null;
 		try {
-			KMeansActions.SegmentImage(uploadItem.getFileData().getOriginalFilename(),ImageIO.read(uploadItem.getFileData().getInputStream()));
+			upload = ingest(uploadItem);
+			SegmentationResult segmentation = KMeansActions.SegmentImage(uploadItem.getFileData().getOriginalFilename(),upload.getImage(),
+					options);
+			log.debug("{}: {}", uploadItem.getFileData().getOriginalFilename(), segmentation);
+		} catch (IOException e) {
+			if(!reject(e, response))
+				throw failed(e, uploadItem.getFileData().getOriginalFilename());
 		} catch (Exception e) {
-			System.err.println("woopsidasical...!@#!@$!");
+			throw failed(e, uploadItem.getFileData().getOriginalFilename());
+		} finally {
+			if(upload != null)
+				upload.close();
 		}
 	}
 	
 	@ResponseStatus(HttpStatus.OK)
 	@RequestMapping(method = RequestMethod.POST, value = {"/upload/{image}","/image-segmentation/{image}"})
-	public void create(UploadItem uploadItem, BindingResult result, @PathVariable("image") String image)
+	public void create(UploadItem uploadItem, BindingResult result, @PathVariable("image") String image,
+			SegmentationOptions options)
 	{
+		prepare(options, image);
 		try {
-			KMeansActions.SegmentImage(image+".jpg",ImageIO.read(new File("src/main/resources/imgs/"+image+".jpg")));
+			SegmentationResult segmentation = KMeansActions.SegmentImage(image+".jpg",Rasters.read(new File("src/main/resources/imgs/"+image+".jpg")),
+					options);
+			log.debug("{}: {}", image, segmentation);
 		} catch (Exception e) {
-			System.err.println(e.toString()+" || src/main/resources/imgs/"+image);
+			throw failed(e, "src/main/resources/imgs/"+image);
 		}
-		System.err.println("-------------------------------------------");
 	}
 
 	
+	// Prediction API----------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------
+	@RequestMapping(method = RequestMethod.POST, value = {"/predict"})
+	public void predict(UploadItem uploadItem, BindingResult result, HttpServletResponse response) throws IOException
+	{
+		SvmModel svm = svm();
+		if(svm == null){
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "no svm model at "+svmFile);
+			return;
+		}
+		String name = uploadItem.getFileData().getOriginalFilename();
+		ImageIngest.Ingested upload;
+		try {
+			upload = ingest(uploadItem);
+		} catch (IOException e) {
+			if(reject(e, response))
+				return;
+			throw e;
+		}
+		try {
+			Photo photo = FeatureExtractor.extract(name, upload.getImage(), false, prepare(new SegmentationOptions(), null));
+			writeJson(response, HttpServletResponse.SC_OK, toJson(name, photo, svm.predict(photo)));
+		} finally {
+			upload.close();
+		}
+	}
+
+	// one or more comma separated imgs, scored as one batch.
+	@SuppressWarnings("unchecked")
+	@RequestMapping(method = RequestMethod.POST, value = {"/predict/{images}"})
+	public void predict(@PathVariable("images") String images, HttpServletResponse response)
+			throws IOException, InterruptedException
+	{
+		SvmModel svm = svm();
+		if(svm == null){
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "no svm model at "+svmFile);
+			return;
+		}
+		List<String> names = new ArrayList<String>();
+		List<Photo> photos = new ArrayList<Photo>();
+		for(String image : images.split(",")){
+			File file = new File("src/main/resources/imgs/"+image+".jpg");
+			if(!file.isFile()){
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, "no image "+image);
+				return;
+			}
+			names.add(image+".jpg");
+			photos.add(FeatureExtractor.extract(image+".jpg", Rasters.read(file), false, prepare(new SegmentationOptions(), image)));
+		}
+		boolean[] positive = svm.predict(photos);
+
+		JSONArray predictions = new JSONArray();
+		for(int i=0; i < photos.size(); i++){
+			predictions.add(toJson(names.get(i), photos.get(i), positive[i]));
+		}
+		JSONObject json = new JSONObject();
+		json.put("predictions", predictions);
+		writeJson(response, HttpServletResponse.SC_OK, json);
+	}
+
+	// the model, read on first use; null while svmFile isn't a model.
+	static SvmModel svm(){
+		SvmModel model = svm;
+		if(model == null){
+			synchronized(ElectionController.class){
+				if(svm == null){
+					svm = loadModel(svmFile);
+				}
+				model = svm;
+			}
+		}
+		return model;
+	}
+
+	static SvmModel loadModel(File file){
+		if(!file.isFile()){
+			return null;
+		}
+		try {
+			SvmModel model = SvmModel.load(file);
+			log.info("svm model C={} gamma={} with {} support vectors from {}",
+					new Object[]{ model.getC(), model.getGamma(), model.getSupportVectors(), file });
+			return model;
+		} catch (IOException e) {
+			log.warn("can't read the svm model "+file, e);
+			return null;
+		}
+	}
+
 	// Combined Image Processing API----------------------------------------------------------------------
 	// ------------------------------------------------------------------------------------------
 	@RequestMapping(method = RequestMethod.GET, value={"/combined-segmentation"})
@@ -114,34 +386,50 @@ public class ElectionController{
 
 	@ResponseStatus(HttpStatus.OK)
 	@RequestMapping(method = RequestMethod.POST, value = {"combined-segmentation"})
-	public void createCombined(UploadItem uploadItem, BindingResult result)
+	public void createCombined(UploadItem uploadItem, BindingResult result,
+			SegmentationOptions options, HttpServletResponse response) throws IOException
 	{
 		if (result.hasErrors())
 		{
 			for(ObjectError error : result.getAllErrors())
 			{
-				System.err.println("Error: " + error.getCode() +  " - " + error.getDefaultMessage());
+				log.warn("bad upload: {} - {}", error.getCode(), error.getDefaultMessage());
 			}
 	        
 		}
 		// Some type of file processing...
+		prepare(options, null);
+		ImageIngest.Ingested upload = null;
 		try {
-			KMeansActions.SegmentImage(uploadItem.getFileData().getOriginalFilename(),ImageIO.read(uploadItem.getFileData().getInputStream()));
+			upload = ingest(uploadItem);
+			SegmentationResult segmentation = KMeansActions.SegmentImage(uploadItem.getFileData().getOriginalFilename(),upload.getImage(),
+					options);
+			log.debug("{}: {}", uploadItem.getFileData().getOriginalFilename(), segmentation);
+		} catch (IOException e) {
+			if(!reject(e, response))
+				throw failed(e, uploadItem.getFileData().getOriginalFilename());
 		} catch (Exception e) {
-			System.err.println("woopsidasical...!@#!@$!");
+			throw failed(e, uploadItem.getFileData().getOriginalFilename());
+		} finally {
+			if(upload != null)
+				upload.close();
 		}
 	}
 	
 	@ResponseStatus(HttpStatus.OK)
 	@RequestMapping(method = RequestMethod.POST, value = {"/combined-segmentation/{image}"})
-	public void createCombined(UploadItem uploadItem, BindingResult result, @PathVariable("image") String image)
+	public void createCombined(UploadItem uploadItem, BindingResult result, @PathVariable("image") String image,
+			SegmentationOptions options)
 	{
+		prepare(options, image);
 		try {
-			CombinedKMeansActions.SegmentImage(image+".jpg",ImageIO.read(new File("src/main/resources/imgs/"+image+".jpg")),0,0,0,0);
+			// around the face the detector finds (-Delections.face.cascade), the whole image without one.
+			SegmentationResult segmentation = CombinedKMeansActions.SegmentFace(image+".jpg",Rasters.read(new File("src/main/resources/imgs/"+image+".jpg")),
+					options);
+			log.debug("{}: {}", image, segmentation);
 		} catch (Exception e) {
-			System.err.println(e.toString()+" || src/main/resources/imgs/"+image);
+			throw failed(e, "src/main/resources/imgs/"+image);
 		}
-		System.err.println("-------------------------------------------");
 	}
 
 	@ResponseStatus(HttpStatus.OK)
@@ -150,22 +438,388 @@ public class ElectionController{
 			@PathVariable("x") int x,
 			@PathVariable("y") int y,
 			@PathVariable("w") int w,
-			@PathVariable("h") int h)
+			@PathVariable("h") int h,
+			SegmentationOptions options)
 	{
-		System.err.println("-------------------------------------------");
-		System.err.println("-------------------------------------------");
+		prepare(options, image);
 		try {
-			BufferedImage b =ImageIO.read(new File("src/main/resources/imgs/romney-r-7.jpg"));
-			CombinedKMeansActions.SegmentImage(image+".jpg",b,29,18,27,27);
+			// only the face box plus ?margin= (a fraction of the box, 0.5 by default) is segmented.
+			BufferedImage b =Rasters.read(new File("src/main/resources/imgs/"+image+".jpg"));
+			SegmentationResult segmentation = CombinedKMeansActions.SegmentRegion(image+".jpg",b,x,y,h,w,options);
+			log.debug("{}: {}", image, segmentation);
 		} catch (Exception e) {
-			System.err.println(e.toString()+" || src/main/resources/imgs/"+image+ "/"+x+"/"+y+"/"+h+"/"+w);
+			throw failed(e, "src/main/resources/imgs/"+image+ "/"+x+"/"+y+"/"+h+"/"+w);
 		}
-		System.err.println("-------------------------------------------");
-		System.err.println("-------------------------------------------");
 	}
 
-	
-	
+
+	// Segmentation Job API------------------------------------------------------------------------
+	// POST enqueues the segmentation and answers 202 with a job id right away,
+	// GET /jobs/{id} polls it. 503 + Retry-After when the queue is full.
+	// ------------------------------------------------------------------------------------------
+	@RequestMapping(method = RequestMethod.POST, value = {"/jobs/image-segmentation"})
+	public void submit(UploadItem uploadItem, BindingResult result, final SegmentationOptions options,
+			HttpServletResponse response) throws IOException
+	{
+		final String name = uploadItem.getFileData().getOriginalFilename();
+		final ImageIngest.Ingested upload;
+		try {
+			upload = ingest(uploadItem);
+		} catch (IOException e) {
+			if(reject(e, response))
+				return;
+			throw e;
+		}
+		prepare(options, null);
+		// the decoded image keeps its share of the ingest budget until the job is done.
+		SegmentationJob job = submit(name, new Callable<SegmentationResult>(){
+			public SegmentationResult call() throws Exception{
+				try {
+					return KMeansActions.SegmentImage(name, upload.getImage(), options);
+				} finally {
+					upload.close();
+				}
+			}
+		}, response);
+		if(job == null)
+			upload.close();
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = {"/jobs/image-segmentation/{image}"})
+	public void submit(@PathVariable("image") final String image, final SegmentationOptions options,
+			HttpServletResponse response) throws IOException
+	{
+		prepare(options, image);
+		submit(image+".jpg", new Callable<SegmentationResult>(){
+			public SegmentationResult call() throws Exception{
+				return KMeansActions.SegmentImage(image+".jpg", Rasters.read(new File("src/main/resources/imgs/"+image+".jpg")), options);
+			}
+		}, response);
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = {"/jobs/combined-segmentation/{image}"})
+	public void submitCombined(@PathVariable("image") final String image, final SegmentationOptions options,
+			HttpServletResponse response) throws IOException
+	{
+		prepare(options, image);
+		submit(image+".jpg", new Callable<SegmentationResult>(){
+			public SegmentationResult call() throws Exception{
+				return CombinedKMeansActions.SegmentFace(image+".jpg", Rasters.read(new File("src/main/resources/imgs/"+image+".jpg")), options);
+			}
+		}, response);
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = {"/jobs/{id}"})
+	public void job(@PathVariable("id") String id, HttpServletResponse response) throws IOException
+	{
+		SegmentationJob job = jobs.get(id);
+		if(job == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no job "+id);
+			return;
+		}
+		writeJson(response, HttpServletResponse.SC_OK, toJson(job));
+	}
+
+	// the segmented image of a finished job.
+	@RequestMapping(method = RequestMethod.GET, value = {"/jobs/{id}/image"})
+	public void jobImage(@PathVariable("id") String id, HttpServletResponse response) throws IOException
+	{
+		SegmentationJob job = jobs.get(id);
+		if(job == null || job.getStatus() != SegmentationJob.Status.DONE){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no finished job "+id);
+			return;
+		}
+		response.setContentType("image/jpeg");
+		TimerContext timer = SegmentationMetrics.ENCODE.time();
+		try {
+			ImageIO.write(job.getResult().getImage(), "jpg", response.getOutputStream());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	// hit/miss/eviction counters of the segmentation cache.
+	@SuppressWarnings("unchecked")
+	@RequestMapping(method = RequestMethod.GET, value = {"/cache"})
+	public void cacheStats(HttpServletResponse response) throws IOException
+	{
+		JSONObject json = new JSONObject();
+		json.put("hits", cache.getHits());
+		json.put("diskHits", cache.getDiskHits());
+		json.put("misses", cache.getMisses());
+		json.put("evictions", cache.getEvictions());
+		json.put("entries", cache.getEntries());
+		json.put("bytes", cache.getBytes());
+		json.put("maxBytes", cache.getMaxBytes());
+		writeJson(response, HttpServletResponse.SC_OK, json);
+	}
+
+	// how many windows got to and were rejected by each stage of the face
+	// cascade since the start, to weigh what a stage costs against what it catches.
+	@SuppressWarnings("unchecked")
+	@RequestMapping(method = RequestMethod.GET, value = {"/faces"})
+	public void faceStats(HttpServletResponse response) throws IOException
+	{
+		FaceDetector faces = FaceDetector.configured();
+		if(faces == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no face cascade loaded");
+			return;
+		}
+		JSONArray stages = new JSONArray();
+		for(int s=0; s < faces.getStages(); s++){
+			JSONObject stage = new JSONObject();
+			stage.put("weakClassifiers", faces.getStageSize(s));
+			stage.put("reached", faces.getReached(s));
+			stage.put("rejected", faces.getRejected(s));
+			stages.add(stage);
+		}
+		JSONObject json = new JSONObject();
+		json.put("images", faces.getImages());
+		json.put("windows", faces.getWindows());
+		json.put("accepted", faces.getReached(faces.getStages()));
+		json.put("faces", faces.getFaces());
+		json.put("stages", stages);
+		writeJson(response, HttpServletResponse.SC_OK, json);
+	}
+
+	// every timer, counter and gauge in the metrics registry, by group and
+	// type (the same ones are on JMX).
+	@SuppressWarnings("unchecked")
+	@RequestMapping(method = RequestMethod.GET, value = {"/metrics"})
+	public void metrics(HttpServletResponse response) throws IOException
+	{
+		JSONObject json = new JSONObject();
+		for(Map.Entry<String, SortedMap<MetricName, Metric>> group : Metrics.defaultRegistry().groupedMetrics().entrySet()){
+			JSONObject metrics = new JSONObject();
+			for(Map.Entry<MetricName, Metric> metric : group.getValue().entrySet()){
+				metrics.put(metric.getKey().getName(), toJson(metric.getValue()));
+			}
+			json.put(group.getKey(), metrics);
+		}
+		writeJson(response, HttpServletResponse.SC_OK, json);
+	}
+
+	// snapshots and cache for a request. Bundled images are seeded from their
+	// name unless the request has a ?seed=, so repeated requests hit the cache.
+	static SegmentationOptions prepare(SegmentationOptions options, String image){
+		options.setSnapshotSink(segmented);
+		options.setCache(cache);
+		if(image != null && options.getSeed() == null){
+			options.setSeed((long) image.hashCode());
+		}
+		return options;
+	}
+
+	// a segmentation that threw; counted in SegmentationMetrics.FAILURES,
+	// logged, and handed back to be thrown so the request answers 500.
+	static SegmentationFailedException failed(Exception e, String what){
+		SegmentationMetrics.FAILURES.inc();
+		log.error("segmentation failed: " + what, e);
+		return new SegmentationFailedException(what, e);
+	}
+
+	@ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+	static class SegmentationFailedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SegmentationFailedException(String what, Throwable cause){
+			super("segmentation failed: " + what, cause);
+		}
+	}
+
+	// null if the queue was full. The job is only DONE once its snapshots are
+	// on disk (or -Delections.snapshots.flushMillis went by), so the pages can
+	// load them as soon as they see it.
+	SegmentationJob submit(String name, final Callable<SegmentationResult> work, HttpServletResponse response) throws IOException{
+		SegmentationJob job;
+		try {
+			job = jobs.submit(name, new Callable<SegmentationResult>(){
+				public SegmentationResult call() throws Exception{
+					SegmentationResult result = work.call();
+					segmented.flush(flushMillis);
+					return result;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			response.setHeader("Retry-After", "5");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "segmentation queue is full");
+			return null;
+		}
+		writeJson(response, HttpServletResponse.SC_ACCEPTED, toJson(job));
+		return job;
+	}
+
+	// decode an upload within the ingest budgets. commons-fileupload spools
+	// anything but small uploads to a temp file, which is then read in place.
+	static ImageIngest.Ingested ingest(UploadItem uploadItem) throws IOException{
+		FileItem item = uploadItem.getFileData().getFileItem();
+		if(!item.isInMemory() && item instanceof DiskFileItem){
+			return ingest.read(((DiskFileItem) item).getStoreLocation());
+		}
+		return ingest.read(uploadItem.getFileData().getInputStream());
+	}
+
+	// answers 413 or 503 for uploads over the ingest budgets; false for any other error.
+	static boolean reject(IOException e, HttpServletResponse response) throws IOException{
+		if(e instanceof ImageIngest.TooLargeException){
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+			return true;
+		}
+		if(e instanceof ImageIngest.BusyException){
+			response.setHeader("Retry-After", "5");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			return true;
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	static JSONObject toJson(SegmentationJob job){
+		JSONObject json = new JSONObject();
+		json.put("id", job.getId());
+		json.put("name", job.getName());
+		json.put("status", job.getStatus().toString().toLowerCase());
+		json.put("queueMillis", job.getQueueMillis());
+		json.put("runMillis", job.getRunMillis());
+		if(job.getStatus() == SegmentationJob.Status.DONE){
+			SegmentationResult segmentation = job.getResult();
+			JSONArray centroids = new JSONArray();
+			for(int c : segmentation.getCentroids()){
+				centroids.add(String.format("#%06x", c));
+			}
+			json.put("centroids", centroids);
+			json.put("iterations", segmentation.getIterations());
+			json.put("converged", segmentation.isConverged());
+			json.put("image", "/jobs/"+job.getId()+"/image");
+			// the snapshot tags the run drew, <tag>-<name> under /segmented.
+			JSONArray snapshots = new JSONArray();
+			snapshots.addAll(segmentation.getSnapshots());
+			json.put("snapshots", snapshots);
+		}
+		if(job.getStatus() == SegmentationJob.Status.FAILED){
+			json.put("error", job.getError());
+		}
+		return json;
+	}
+
+	@SuppressWarnings("unchecked")
+	static JSONObject toJson(ImageStatistics stats){
+		JSONObject histograms = new JSONObject(), mean = new JSONObject(), max = new JSONObject(),
+				variance = new JSONObject(), meanDivMax = new JSONObject(), sumDivMax = new JSONObject();
+		for(int c=0; c < ImageStatistics.CHANNELS.length; c++){
+			String channel = ImageStatistics.CHANNELS[c];
+			JSONArray bins = new JSONArray();
+			for(int count : stats.getHistogram(c)){
+				bins.add(count);
+			}
+			histograms.put(channel, bins);
+			mean.put(channel, stats.getMean(c));
+			max.put(channel, stats.getMax(c));
+			variance.put(channel, stats.getVariance(c));
+			meanDivMax.put(channel, stats.getMeanDivMax(c));
+			sumDivMax.put(channel, stats.getSumDivMax(c));
+		}
+		JSONObject json = new JSONObject();
+		json.put("width", stats.getWidth());
+		json.put("height", stats.getHeight());
+		json.put("histograms", histograms);
+		json.put("mean", mean);
+		json.put("max", max);
+		json.put("variance", variance);
+		json.put("meanDivMax", meanDivMax);
+		json.put("sumDivMax", sumDivMax);
+		if(stats.isSegmented()){
+			JSONArray quadrants = new JSONArray();
+			for(int q=1; q <= 4; q++){
+				quadrants.add(stats.getQuadrant(q));
+			}
+			json.put("quadrants", quadrants);
+			json.put("binaryFilterDifference", stats.getBinaryFilterDifference());
+		}
+		return json;
+	}
+
+	// the cells of an n x n grid, row by row.
+	@SuppressWarnings("unchecked")
+	static JSONObject toJson(RegionTables regions, int n){
+		JSONArray foreground = new JSONArray(), difference = new JSONArray();
+		int[] cells = regions.getGrid(n);
+		double[] differences = regions.getDifferenceGrid(n);
+		for(int j=0; j < n; j++){
+			JSONArray row = new JSONArray(), differenceRow = new JSONArray();
+			for(int i=0; i < n; i++){
+				row.add(cells[j*n + i]);
+				differenceRow.add(differences[j*n + i]);
+			}
+			foreground.add(row);
+			difference.add(differenceRow);
+		}
+		JSONObject json = new JSONObject();
+		json.put("size", n);
+		json.put("foreground", foreground);
+		json.put("binaryFilterDifference", difference);
+		return json;
+	}
+
+	@SuppressWarnings("unchecked")
+	static JSONObject toJson(String name, Photo photo, boolean positive){
+		JSONArray features = new JSONArray();
+		for(double f : photo.getFeatures()){
+			features.add(f);
+		}
+		JSONObject json = new JSONObject();
+		json.put("name", name);
+		json.put("positive", positive);
+		json.put("features", features);
+		return json;
+	}
+
+	// timers and histograms in their own units (milliseconds for the
+	// SegmentationMetrics timers), rates per second.
+	@SuppressWarnings("unchecked")
+	static JSONObject toJson(Metric metric){
+		JSONObject json = new JSONObject();
+		if(metric instanceof Gauge){
+			json.put("value", ((Gauge<?>) metric).value());
+		}
+		if(metric instanceof Counter){
+			json.put("count", ((Counter) metric).count());
+		}
+		if(metric instanceof Histogram){
+			json.put("count", ((Histogram) metric).count());
+		}
+		if(metric instanceof Metered){
+			Metered metered = (Metered) metric;
+			json.put("count", metered.count());
+			json.put("meanRate", metered.meanRate());
+			json.put("oneMinuteRate", metered.oneMinuteRate());
+			json.put("fiveMinuteRate", metered.fiveMinuteRate());
+			json.put("fifteenMinuteRate", metered.fifteenMinuteRate());
+		}
+		if(metric instanceof Summarizable){
+			Summarizable summary = (Summarizable) metric;
+			json.put("min", summary.min());
+			json.put("max", summary.max());
+			json.put("mean", summary.mean());
+			json.put("stdDev", summary.stdDev());
+		}
+		if(metric instanceof Sampling){
+			Snapshot snapshot = ((Sampling) metric).getSnapshot();
+			json.put("p50", snapshot.getMedian());
+			json.put("p75", snapshot.get75thPercentile());
+			json.put("p95", snapshot.get95thPercentile());
+			json.put("p99", snapshot.get99thPercentile());
+		}
+		return json;
+	}
+
+	static void writeJson(HttpServletResponse response, int status, JSONObject json) throws IOException{
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().write(json.toJSONString());
+	}
+
 	
 	
 	// --- helper function ----------------------------------------
@@ -25,5 +25,102 @@ public class Photo {
 	private double SmeanDivMaxHSV;
 	private double VmeanDivMaxHSV;
 	
+	public boolean isPositive() {
+		return isPositive;
+	}
 
-}
\ No newline at end of file
+	public void setPositive(boolean positive) {
+		this.isPositive = positive;
+	}
+
+	public double getFaceDetected() {
+		return faceDetected;
+	}
+
+	public void setFaceDetected(double faceDetected) {
+		this.faceDetected = faceDetected;
+	}
+
+	public double getBinaryFilterDifference() {
+		return binaryFilterDifference;
+	}
+
+	public void setBinaryFilterDifference(double binaryFilterDifference) {
+		this.binaryFilterDifference = binaryFilterDifference;
+	}
+
+	public int getQuadrant1() {
+		return quadrant1;
+	}
+
+	public void setQuadrant1(int quadrant1) {
+		this.quadrant1 = quadrant1;
+	}
+
+	public int getQuadrant2() {
+		return quadrant2;
+	}
+
+	public void setQuadrant2(int quadrant2) {
+		this.quadrant2 = quadrant2;
+	}
+
+	public int getQuadrant3() {
+		return quadrant3;
+	}
+
+	public void setQuadrant3(int quadrant3) {
+		this.quadrant3 = quadrant3;
+	}
+
+	public int getQuadrant4() {
+		return quadrant4;
+	}
+
+	public void setQuadrant4(int quadrant4) {
+		this.quadrant4 = quadrant4;
+	}
+
+	public double getHmeanDivMaxHSV() {
+		return HmeanDivMaxHSV;
+	}
+
+	public void setHmeanDivMaxHSV(double hmeanDivMaxHSV) {
+		this.HmeanDivMaxHSV = hmeanDivMaxHSV;
+	}
+
+	public double getSmeanDivMaxHSV() {
+		return SmeanDivMaxHSV;
+	}
+
+	public void setSmeanDivMaxHSV(double smeanDivMaxHSV) {
+		this.SmeanDivMaxHSV = smeanDivMaxHSV;
+	}
+
+	public double getVmeanDivMaxHSV() {
+		return VmeanDivMaxHSV;
+	}
+
+	public void setVmeanDivMaxHSV(double vmeanDivMaxHSV) {
+		this.VmeanDivMaxHSV = vmeanDivMaxHSV;
+	}
+
+	// the 9 features in svm order.
+	public double[] getFeatures() {
+		return new double[]{ faceDetected, binaryFilterDifference, quadrant1, quadrant2, quadrant3, quadrant4,
+				HmeanDivMaxHSV, SmeanDivMaxHSV, VmeanDivMaxHSV };
+	}
+
+	public void setFeatures(double[] features) {
+		faceDetected = features[0];
+		binaryFilterDifference = features[1];
+		quadrant1 = (int) features[2];
+		quadrant2 = (int) features[3];
+		quadrant3 = (int) features[4];
+		quadrant4 = (int) features[5];
+		HmeanDivMaxHSV = features[6];
+		SmeanDivMaxHSV = features[7];
+		VmeanDivMaxHSV = features[8];
+	}
+
+}
@@ -0,0 +1,109 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.yammer.metrics.core.TimerContext;
+
+// Writes snapshots as <tag>-<name> JPEGs on a background thread.
+// The queue is bounded; when the writer falls behind new snapshots are
+// dropped (and counted) instead of blocking the segmentation. flush() waits
+// for what's queued so far to be on disk.
+public class AsyncDiskSnapshotSink implements SnapshotSink {
+
+	private final File dir;
+	private final BlockingQueue<Snapshot> queue;
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	// snapshots queued and snapshots written (or failed) so far, guarded by this.
+	private long queued, finished;
+
+	public AsyncDiskSnapshotSink(File dir, int capacity){
+		this.dir = dir;
+		this.queue = new ArrayBlockingQueue<Snapshot>(capacity);
+		Thread writer = new Thread(new Runnable(){
+			public void run(){
+				drain();
+			}
+		}, "snapshot-writer-" + dir.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void snapshot(String name, String tag, BufferedImage image){
+		synchronized(this){
+			if(queue.offer(new Snapshot(tag + "-" + name, image))){
+				queued++;
+				return;
+			}
+		}
+		dropped.incrementAndGet();
+	}
+
+	// wait up to timeoutMillis for every snapshot queued before the call to be
+	// written; false if some still weren't. Dropped snapshots are never written.
+	public synchronized boolean flush(long timeoutMillis) throws InterruptedException{
+		long target = queued;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for(long left = timeoutMillis; finished < target; left = deadline - System.currentTimeMillis()){
+			if(left <= 0){
+				return false;
+			}
+			wait(left);
+		}
+		return true;
+	}
+
+	public long getWritten(){
+		return written.get();
+	}
+
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	public int getQueued(){
+		return queue.size();
+	}
+
+	void drain(){
+		while(true){
+			Snapshot snapshot;
+			try {
+				snapshot = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			TimerContext timer = SegmentationMetrics.ENCODE.time();
+			try {
+				ImageIO.write(snapshot.image, "jpg", new File(dir, snapshot.file));
+				written.incrementAndGet();
+			} catch (IOException e) {
+				System.err.println(e.toString()+" || "+dir+"/"+snapshot.file);
+			} finally {
+				timer.stop();
+				synchronized(this){
+					finished++;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	static class Snapshot {
+		final String file;
+		final BufferedImage image;
+
+		Snapshot(String file, BufferedImage image){
+			this.file = file;
+			this.image = image;
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import elections.model.Photo;
+
+// Headless feature extraction for whole training directories.
+//
+// Every jpg under dir is decoded, segmented and run through FeatureExtractor on
+// a pool of worker threads, and the Photo vectors go to a FeatureFile. At most
+// inFlight images are decoded or waiting at any time, so memory stays flat no
+// matter how big the tree is. A photo is positive when its directory name
+// contains "positive" (or "postive", as in imgs/data/obamapostive).
+// Directories ending in _orig (imgs/data/obamanegative_orig) hold copies of
+// another directory's photos and are skipped; every directory used or skipped
+// is printed.
+//
+// With a rasters directory every image is decoded once into an ImageBuffer
+// raster file there (<rasters>/<path>.rgb), and later runs map those files
+// instead of decoding the JPEGs; the pixels and the segmentation planes then
+// stay off the heap.
+//
+// dir can also be an ImageCorpus file (see CorpusBuilder); its records are
+// mapped and segmented in file order without touching a JPEG.
+//
+//   java elections.tools.BatchFeatures [dir=src/main/resources/imgs/data] [out=features.bin] [threads=cores] [inFlight=2*threads] [rasters]
+public class BatchFeatures {
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs/data");
+		File out = new File(args.length > 1 ? args[1] : "features.bin");
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int inFlight = args.length > 3 ? Integer.parseInt(args[3]) : 2*threads;
+		File rasters = args.length > 4 ? new File(args[4]) : null;
+
+		List<Callable<Extracted>> tasks = dir.isFile() && ImageCorpus.isCorpus(dir)
+				? tasks(new ImageCorpus(dir)) : tasks(dir, rasters);
+
+		final Semaphore permits = new Semaphore(inFlight);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<Extracted> done = new ExecutorCompletionService<Extracted>(pool);
+		FeatureFile features = new FeatureFile(out);
+
+		long start = System.nanoTime();
+		int pending = 0, failed = 0;
+		try{
+			for(final Callable<Extracted> task : tasks){
+				permits.acquire();
+				done.submit(new Callable<Extracted>(){
+					public Extracted call() throws Exception{
+						try{
+							return task.call();
+						}finally{
+							permits.release();
+						}
+					}
+				});
+				pending++;
+				// write whatever finished while we were waiting.
+				Future<Extracted> f;
+				while((f = done.poll()) != null){
+					pending--;
+					failed += write(f, features);
+				}
+			}
+			while(pending > 0){
+				pending--;
+				failed += write(done.take(), features);
+			}
+		}finally{
+			features.close();
+			pool.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.println(features.getWritten()+" photos, "+failed+" failed, "+String.format("%.1f", seconds)+"s, "
+				+String.format("%.1f", features.getWritten()/seconds)+" images/s on "+threads+" threads -> "+out);
+	}
+
+	// one task per jpg under dir.
+	static List<Callable<Extracted>> tasks(File dir, final File rasters){
+		List<File> files = new ArrayList<File>();
+		collect(dir, files);
+		final String root = dir.getPath();
+		List<Callable<Extracted>> tasks = new ArrayList<Callable<Extracted>>(files.size());
+		for(final File file : files){
+			tasks.add(new Callable<Extracted>(){
+				public Extracted call() throws Exception{
+					try{
+						String name = file.getPath().substring(root.length()+1);
+						if(rasters != null){
+							ImageBuffer image = raster(file, new File(rasters, name + ".rgb"));
+							return new Extracted(name, FeatureExtractor.extract(name, image, isPositive(file)));
+						}
+						BufferedImage img = Rasters.read(file);
+						return new Extracted(name, FeatureExtractor.extract(name, img, isPositive(file)));
+					}catch(Exception e){
+						throw new Exception(file.getPath(), e);
+					}
+				}
+			});
+		}
+		return tasks;
+	}
+
+	// one task per record of an ImageCorpus, in file order; nothing is decoded.
+	static List<Callable<Extracted>> tasks(ImageCorpus corpus){
+		List<Callable<Extracted>> tasks = new ArrayList<Callable<Extracted>>(corpus.size());
+		for(final ImageCorpus.Record record : corpus.records()){
+			tasks.add(new Callable<Extracted>(){
+				public Extracted call() throws Exception{
+					try{
+						String name = record.getName();
+						return new Extracted(name, FeatureExtractor.extract(name, record.getImage(), record.isPositive()));
+					}catch(Exception e){
+						throw new Exception(record.toString(), e);
+					}
+				}
+			});
+		}
+		return tasks;
+	}
+
+	// the decoded image from its raster file, decoding the jpg into one first
+	// when there's none yet (or the jpg is newer).
+	static ImageBuffer raster(File jpg, File raster) throws IOException{
+		if(raster.isFile() && raster.lastModified() >= jpg.lastModified()){
+			return ImageBuffer.map(raster);
+		}
+		raster.getParentFile().mkdirs();
+		ImageBuffer image = ImageBuffer.of(Rasters.read(jpg));
+		image.save(raster);
+		return image;
+	}
+
+	// returns 1 when the image failed.
+	static int write(Future<Extracted> f, FeatureFile features) throws Exception{
+		try{
+			Extracted e = f.get();
+			features.write(e.name, e.photo);
+			return 0;
+		}catch(ExecutionException e){
+			System.err.println("skipped " + e.getCause().getMessage() + ": " + e.getCause().getCause());
+			return 1;
+		}
+	}
+
+	// a photo and its path relative to the input directory.
+	static class Extracted {
+		final String name;
+		final Photo photo;
+
+		Extracted(String name, Photo photo){
+			this.name = name;
+			this.photo = photo;
+		}
+	}
+
+	static boolean isPositive(File file){
+		return isPositiveDir(file.getParentFile());
+	}
+
+	static boolean isPositiveDir(File dir){
+		String label = dir.getName().toLowerCase();
+		return label.contains("positive") || label.contains("postive");
+	}
+
+	// jpgs under dir, depth first and sorted by name, without the _orig copies.
+	static void collect(File dir, List<File> files){
+		File[] children = dir.listFiles(new FileFilter(){
+			public boolean accept(File f){
+				return f.isDirectory() || f.getName().toLowerCase().endsWith(".jpg");
+			}
+		});
+		if(children == null){
+			return;
+		}
+		Arrays.sort(children);
+		int jpgs = 0;
+		for(File child : children){
+			if(!child.isDirectory()){
+				files.add(child);
+				jpgs++;
+			}else if(child.getName().toLowerCase().endsWith("_orig")){
+				System.out.println("skipped "+child.getPath()+" (copies)");
+			}else{
+				collect(child, files);
+			}
+		}
+		if(jpgs > 0){
+			System.out.println(dir.getPath()+": "+jpgs+" jpgs, "+(isPositiveDir(dir) ? "positive" : "negative"));
+		}
+	}
+
+}
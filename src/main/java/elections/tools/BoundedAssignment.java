@@ -0,0 +1,204 @@
+package elections.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hamerly's bounds for the k-means assignment step.
+//
+// Every pixel keeps an upper bound on its distance to its own centroid and a
+// lower bound on its distance to every other one. When the centroids move the
+// bounds are loosened by how far they moved (triangle inequality), and as long
+// as the upper bound stays below the lower bound, or below half the distance
+// from its centroid to the closest other centroid, the pixel can't have
+// changed cluster and none of its distances are computed. Only the pixels
+// near a boundary are looked at again, which after the first few iterations
+// is a small part of the image.
+//
+// The bounds are kept relative to how far the centroids have moved in total
+// (upper minus its centroid's drift, lower plus the largest drift), and the
+// cluster sums are carried over from the previous iteration and only corrected
+// for the pixels that changed cluster, so a pixel that stays put costs its
+// label and two bounds read and nothing written.
+//
+// A pixel is only skipped when its centroid is strictly closer than any other
+// by a margin (EPSILON) that covers the float rounding of the distances, so
+// ties still go through KMeansEngine.nearest and the labels are exactly the
+// plain algorithm's.
+public class BoundedAssignment {
+
+	// well above the rounding error of a distance between float (H,S,V) points.
+	static final float EPSILON = 1e-5f;
+
+	final int k;
+	// upper - drift[label] and lower + maxDrift.
+	final float[] upper, lower;
+	// centroids of the previous assignment, half the distance from each to
+	// its closest other centroid, and how far each has moved in total.
+	final float[] ph, ps, pv;
+	final float[] half;
+	final double[] drift;
+	double maxDrift;
+	boolean started;
+	// the cluster sums and counts of the current labels.
+	final long[] sums;
+	final int[] counts;
+
+	// distances computed and pixels looked at, since the last step().
+	private final AtomicLong distances = new AtomicLong(), pixels = new AtomicLong();
+
+	public BoundedAssignment(int size, int k){
+		this.k = k;
+		this.upper = new float[size];
+		this.lower = new float[size];
+		this.ph = new float[k];
+		this.ps = new float[k];
+		this.pv = new float[k];
+		this.half = new float[k];
+		this.drift = new double[k];
+		this.sums = new long[3*k];
+		this.counts = new int[k];
+	}
+
+	// call once per iteration with the new centroids, before assigning any pixel.
+	public void step(float[] ch, float[] cs, float[] cv){
+		distances.set(0);
+		pixels.set(0);
+		double maxMoved = 0;
+		for(int c=0; c < k; c++){
+			if(started){
+				double moved = distance(ch[c], cs[c], cv[c], ph[c], ps[c], pv[c]) + EPSILON;
+				drift[c] += moved;
+				maxMoved = Math.max(maxMoved, moved);
+			}
+			double closest = Double.MAX_VALUE;
+			for(int o=0; o < k; o++){
+				if(o != c){
+					closest = Math.min(closest, distance(ch[c], cs[c], cv[c], ch[o], cs[o], cv[o]));
+				}
+			}
+			half[c] = (float)(closest/2);
+		}
+		maxDrift += maxMoved;
+		System.arraycopy(ch, 0, ph, 0, k);
+		System.arraycopy(cs, 0, ps, 0, k);
+		System.arraycopy(cv, 0, pv, 0, k);
+		started = true;
+	}
+
+	// like KMeansEngine.assign, except that sums and counts only get what
+	// changed: the pixels that moved are taken out of their old cluster and
+	// added to their new one. Pixels without a label yet get all their
+	// distances computed.
+	public int assign(int[] rgb, float[] h, float[] s, float[] v, int from, int to,
+			float[] ch, float[] cs, float[] cv, byte[] labels, long[] sums, int[] counts){
+		int changed = 0;
+		long computed = 0;
+		for(int i=from; i < to; i++){
+			int c = labels[i];
+			boolean settled = false;
+			if(c >= 0){
+				double u = upper[i] + drift[c];
+				double bound = Math.max(lower[i] - maxDrift, half[c]);
+				if(u + EPSILON < bound){
+					settled = true;
+				}else{
+					// tighten the upper bound and try again.
+					u = distance(h[i], s[i], v[i], ch[c], cs[c], cv[c]);
+					computed++;
+					settled = u + EPSILON < bound;
+					upper[i] = (float)(u - drift[c]);
+				}
+			}
+			if(settled){
+				continue;
+			}
+			int nearest = nearest(h[i], s[i], v[i], ch, cs, cv, i);
+			computed += k;
+			if(c == nearest){
+				continue;
+			}
+			labels[i] = (byte) nearest;
+			changed++;
+			int p = rgb[i];
+			int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+			if(c >= 0){
+				sums[3*c]   -= r;
+				sums[3*c+1] -= g;
+				sums[3*c+2] -= b;
+				counts[c]--;
+			}
+			sums[3*nearest]   += r;
+			sums[3*nearest+1] += g;
+			sums[3*nearest+2] += b;
+			counts[nearest]++;
+		}
+		distances.addAndGet(computed);
+		pixels.addAndGet(to - from);
+		return changed;
+	}
+
+	// add the changes assign() left in sums and counts (from every range of
+	// the step) to the running totals, and put the totals in their place.
+	public void totals(long[] sums, int[] counts){
+		for(int i=0; i < sums.length; i++){
+			this.sums[i] += sums[i];
+		}
+		for(int c=0; c < k; c++){
+			this.counts[c] += counts[c];
+		}
+		System.arraycopy(this.sums, 0, sums, 0, sums.length);
+		System.arraycopy(this.counts, 0, counts, 0, k);
+	}
+
+	// KMeansEngine.nearest, also setting the bounds of pixel i.
+	int nearest(float h, float s, float v, float[] ch, float[] cs, float[] cv, int i){
+		int best = 0;
+		boolean tied = false;
+		double min = Double.MAX_VALUE, second = Double.MAX_VALUE;
+		for(int c=0; c < k; c++){
+			double dh = Math.abs(h - ch[c]);
+			double ds = Math.abs(s - cs[c]);
+			double dv = Math.abs(v - cv[c]);
+			double d = dh*dh + ds*ds + dv*dv;
+			if(d < min){
+				second = min;
+				min = d;
+				best = c;
+				tied = false;
+			}else{
+				if(d == min){
+					tied = true;
+				}
+				second = Math.min(second, d);
+			}
+		}
+		if(tied){
+			// the last cluster, whatever its distance; look at the pixel again next time.
+			upper[i] = (float)(distance(h, s, v, ch[k-1], cs[k-1], cv[k-1]) - drift[k-1]);
+			lower[i] = (float) maxDrift;
+			return k-1;
+		}
+		upper[i] = (float)(Math.sqrt(min) - drift[best]);
+		lower[i] = k > 1 ? (float)(Math.sqrt(second) + maxDrift) : Float.MAX_VALUE;
+		return best;
+	}
+
+	static double distance(float h, float s, float v, float ch, float cs, float cv){
+		double dh = Math.abs(h - ch);
+		double ds = Math.abs(s - cs);
+		double dv = Math.abs(v - cv);
+		return Math.sqrt(dh*dh + ds*ds + dv*dv);
+	}
+
+	// distances computed since step().
+	public long getDistances(){
+		return distances.get();
+	}
+
+	// fraction of the distances the plain assignment would have computed
+	// (k per pixel) that were skipped since step().
+	public double getSkipped(){
+		long all = pixels.get()*k;
+		return all == 0 ? 0 : 1 - (double) distances.get()/all;
+	}
+
+}
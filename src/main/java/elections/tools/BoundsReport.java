@@ -0,0 +1,91 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+// What BoundedAssignment saves. For every jpg in a directory it runs the plain
+// and the bounded segmentation from the same seeds, checks that every
+// iteration gives the same labels, and prints the fit times and the fraction
+// of the distances skipped in each iteration, then the averages per iteration.
+//
+//   java elections.tools.BoundsReport [dir=src/main/resources/imgs] [runs=5] [parallelism=1]
+public class BoundsReport {
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs");
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		File[] files = PyramidReport.images(dir);
+		SegmentationOptions plain = new SegmentationOptions();
+		plain.setParallelism(parallelism);
+		plain.setBounded(false);
+		SegmentationOptions bounded = plain.copy();
+		bounded.setBounded(true);
+
+		int iterations = plain.getMaxIterations();
+		double[] skipped = new double[iterations];
+		int[] images = new int[iterations];
+		double plainMillis = 0, boundedMillis = 0;
+		int mismatches = 0;
+		System.out.println("image\tsize\titerations\tplain ms\tbounded ms\tspeedup\tsame labels\tskipped per iteration");
+		for(File file : files){
+			BufferedImage img = ImageIO.read(file);
+			int[] seeds = SegmentationSession.seeds(img, plain.getK(), new Random(file.getName().hashCode()));
+
+			// iteration by iteration, comparing the labels.
+			SegmentationSession a = session(file, img, seeds, plain), b = session(file, img, seeds, bounded);
+			boolean same = true;
+			StringBuilder fractions = new StringBuilder();
+			int loops = 0;
+			for(; loops < iterations && !a.converged(); loops++){
+				a.iterate();
+				b.iterate();
+				same &= Arrays.equals(a.labels(), b.labels());
+				skipped[loops] += b.skipped();
+				images[loops]++;
+				fractions.append(String.format("%.2f ", b.skipped()));
+			}
+			if(!same){
+				mismatches++;
+			}
+
+			long plainBest = Long.MAX_VALUE, boundedBest = Long.MAX_VALUE;
+			for(int r=0; r < runs; r++){
+				plainBest = Math.min(plainBest, time(file, img, seeds, plain));
+				boundedBest = Math.min(boundedBest, time(file, img, seeds, bounded));
+			}
+			plainMillis += plainBest/1e6;
+			boundedMillis += boundedBest/1e6;
+			System.out.println(file.getName()+"\t"+img.getWidth()+"x"+img.getHeight()+"\t"+loops+"\t"
+					+String.format("%.2f", plainBest/1e6)+"\t"+String.format("%.2f", boundedBest/1e6)+"\t"
+					+String.format("%.2fx", (double) plainBest/boundedBest)+"\t"+same+"\t"+fractions.toString().trim());
+		}
+
+		System.out.println();
+		System.out.println("iteration\timages\tmean skipped");
+		for(int i=0; i < iterations && images[i] > 0; i++){
+			System.out.println(i+"\t"+images[i]+"\t"+String.format("%.4f", skipped[i]/images[i]));
+		}
+		System.out.println(files.length+" images, "+mismatches+" with different labels, mean "
+				+String.format("%.2f", plainMillis/files.length)+" ms plain, "
+				+String.format("%.2f", boundedMillis/files.length)+" ms bounded ("
+				+String.format("%.2fx", plainMillis/boundedMillis)+")");
+	}
+
+	static SegmentationSession session(File file, BufferedImage img, int[] seeds, SegmentationOptions options){
+		return new SegmentationSession(file.getName(), img, seeds,
+				img.getWidth()/2, img.getHeight()/2, img.getWidth()/2, img.getHeight()/2, options);
+	}
+
+	static long time(File file, BufferedImage img, int[] seeds, SegmentationOptions options){
+		long start = System.nanoTime();
+		session(file, img, seeds, options).fit();
+		return System.nanoTime() - start;
+	}
+
+}
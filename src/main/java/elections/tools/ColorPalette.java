@@ -0,0 +1,95 @@
+package elections.tools;
+
+import java.util.Arrays;
+
+// The distinct quantized colors of one image.
+//
+// Every pixel points at a palette entry and every entry carries the exact rgb
+// sums and pixel count of the pixels in it. Assigning the entries instead of
+// the pixels gives the same centroid sums as assigning every pixel the label
+// of its bucket, so an iteration costs O(palette) instead of O(pixels).
+public class ColorPalette {
+
+	final HSVTable table;
+	final int[] codes;		// table index of each entry
+	final int[] weights;	// pixels in each entry
+	final long[] sums;		// r,g,b sums of those pixels, interleaved
+	final int[] entries;	// palette entry of each pixel
+
+	// table index -> palette entry while a palette is built, all -1 in
+	// between. Per thread and kept, the table has 2^(3*bits) entries (8MB at
+	// 7 bits) and a palette only touches the few it has.
+	private static final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>(){
+		protected int[] initialValue(){
+			return new int[0];
+		}
+	};
+
+	public ColorPalette(int[] rgb, HSVTable table){
+		this.table = table;
+		this.entries = new int[rgb.length];
+
+		int[] index = scratch.get();
+		if(index.length < table.size()){
+			index = new int[table.size()];
+			Arrays.fill(index, -1);
+			scratch.set(index);
+		}
+		int[] codes = new int[Math.min(rgb.length, table.size())];
+		int size = 0;
+		for(int i=0; i < rgb.length; i++){
+			int code = table.index(rgb[i]);
+			int e = index[code];
+			if(e < 0){
+				e = index[code] = size;
+				codes[size++] = code;
+			}
+			entries[i] = e;
+		}
+		this.codes = Arrays.copyOf(codes, size);
+		for(int e=0; e < size; e++){
+			index[codes[e]] = -1;
+		}
+
+		this.weights = new int[size];
+		this.sums = new long[3*size];
+		for(int i=0; i < rgb.length; i++){
+			int e = entries[i], p = rgb[i];
+			weights[e]++;
+			sums[3*e]   += (p >> 16) & 0xff;
+			sums[3*e+1] += (p >> 8) & 0xff;
+			sums[3*e+2] += p & 0xff;
+		}
+	}
+
+	public int size(){
+		return codes.length;
+	}
+
+	// assign every entry to its closest centroid and accumulate the cluster
+	// sums. returns the number of pixels whose label changed.
+	public int assign(float[] ch, float[] cs, float[] cv, byte[] labels, long[] clusterSums, int[] counts){
+		int changed = 0;
+		for(int e=0; e < codes.length; e++){
+			int code = codes[e];
+			int c = KMeansEngine.nearest(table.h[code], table.s[code], table.v[code], ch, cs, cv);
+			if(labels[e] != c){
+				labels[e] = (byte) c;
+				changed += weights[e];
+			}
+			clusterSums[3*c]   += sums[3*e];
+			clusterSums[3*c+1] += sums[3*e+1];
+			clusterSums[3*c+2] += sums[3*e+2];
+			counts[c] += weights[e];
+		}
+		return changed;
+	}
+
+	// per pixel labels from per entry labels.
+	public void expand(byte[] entryLabels, byte[] labels){
+		for(int i=0; i < entries.length; i++){
+			labels[i] = entryLabels[entries[i]];
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+// Accuracy and speed of the quantized HSVTable/ColorPalette assignment compared
+// to the exact per pixel path. For every jpg in a directory and every number
+// of bits it prints the palette size, the fit time and the fraction of pixels
+// labelled the same as the exact run (both start from the same seeds), then
+// the averages per number of bits.
+//
+//   java elections.tools.ColorTableReport [dir=src/main/resources/imgs] [runs=5] [bits=4,5,6,7]
+public class ColorTableReport {
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs");
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String[] bitList = (args.length > 2 ? args[2] : "4,5,6,7").split(",");
+
+		int[] bits = new int[bitList.length + 1];
+		for(int i=0; i < bitList.length; i++){
+			bits[i+1] = Integer.parseInt(bitList[i].trim());
+		}
+		// build the tables up front so the timings don't include them.
+		for(int i=1; i < bits.length; i++){
+			HSVTable.get(bits[i]);
+		}
+
+		File[] files = PyramidReport.images(dir);
+		double[] agreement = new double[bits.length];
+		double[] millis = new double[bits.length];
+		double[] paletteFraction = new double[bits.length];
+		System.out.println("image\tpixels\tbits\tpalette\tms\tagreement");
+		for(File file : files){
+			BufferedImage img = ImageIO.read(file);
+			int pixels = img.getWidth()*img.getHeight();
+			int[] seeds = SegmentationSession.seeds(img, 5, new Random(file.getName().hashCode()));
+			byte[] reference = null;
+			for(int b=0; b < bits.length; b++){
+				SegmentationOptions options = new SegmentationOptions();
+				options.setParallelism(1);
+				options.setQuantizationBits(bits[b]);
+
+				SegmentationSession session = null;
+				long best = Long.MAX_VALUE;
+				for(int r=0; r < runs; r++){
+					long start = System.nanoTime();
+					session = new SegmentationSession(file.getName(), img, seeds,
+							img.getWidth()/2, img.getHeight()/2, img.getWidth()/2, img.getHeight()/2, options);
+					session.fit();
+					best = Math.min(best, System.nanoTime() - start);
+				}
+
+				byte[] labels = session.getLabels();
+				if(b == 0){
+					reference = labels;
+				}
+				int palette = bits[b] > 0 ? new ColorPalette(Rasters.data(Rasters.toIntRGB(img)), HSVTable.get(bits[b])).size() : pixels;
+				double agree = PyramidReport.agreement(reference, labels);
+				agreement[b] += agree;
+				millis[b] += best/1e6;
+				paletteFraction[b] += (double)palette / pixels;
+				System.out.println(file.getName()+"\t"+pixels+"\t"+(bits[b] > 0 ? bits[b] : "exact")+"\t"+palette+"\t"
+						+String.format("%.2f", best/1e6)+"\t"+String.format("%.4f", agree));
+			}
+		}
+
+		System.out.println();
+		System.out.println("bits\tpalette/pixels\tmean ms\tspeedup\tmean agreement");
+		for(int b=0; b < bits.length; b++){
+			System.out.println((bits[b] > 0 ? String.valueOf(bits[b]) : "exact")+"\t"
+					+String.format("%.3f", paletteFraction[b]/files.length)+"\t"
+					+String.format("%.2f", millis[b]/files.length)+"\t"
+					+String.format("%.2fx", millis[0]/millis[b])+"\t"
+					+String.format("%.4f", agreement[b]/files.length));
+		}
+	}
+
+}
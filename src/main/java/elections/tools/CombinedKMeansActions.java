@@ -1,215 +1,63 @@
 package elections.tools;
 
-import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-
-import javax.imageio.ImageIO;
 
 public class CombinedKMeansActions {
 
 	//use (H,S,V) as the feature vector
 
-	BufferedImage image_temp;
-	BufferedImage temp;
-	private static Color[] k_means;
-	private static int[] k_meansc = new int[4];
-	private static int[] k_means1c = new int[4];
-	private static int[] k_means2c = new int[4];
-	private static int[] k_means3c = new int[4];
-	private static int[] k_means4c = new int[4];
-	private static int k_meansi[]=new int[5];
-	boolean not_terminated;
-	int loops, changedPixels;
-	int[] histogram;
-	int [] lowerbounds;
-
-	public static void SegmentImage(String name, BufferedImage img,int x, int y,int height, int width) throws IOException{
-		BufferedImage temp= deepCopy(img);
-		initialize(img,5,x,y,height,width);
-
-		// iterate through the loops.
-		for(int ic=0; ic < 20; ic++){
-
-			//loop through the images
-			for(int w=0; w < img.getWidth(); w++){
-				for(int h=0; h < img.getHeight(); h++){
-					Color pixel = new Color(img.getRGB(w, h));
-					double a = dist(hsv(pixel),hsv(k_means[0]));
-					double b = dist(hsv(pixel),hsv(k_means[1]));
-					double c = dist(hsv(pixel),hsv(k_means[2]));
-					double d = dist(hsv(pixel),hsv(k_means[3]));
-					double e = dist(hsv(pixel),hsv(k_means[4]));
-					if(
-							a < b 
-							&& a < c
-							&& a < d
-							&& a < e
-					){
-						k_meansc[1] += pixel.getRed();
-						k_meansc[2] += pixel.getGreen();
-						k_meansc[3] += pixel.getBlue();
-						k_meansi[0]++;
-						temp.setRGB(w, h, k_means[0].getRGB());
-					}else if(
-							b < a
-							&& b < c 
-							&& b < d
-							&& b < e
-					){
-					
-						k_means1c[1] += pixel.getRed();
-						k_means1c[2] += pixel.getGreen();
-						k_means1c[3] += pixel.getBlue();
-						k_meansi[1]++;
-						temp.setRGB(w, h, k_means[1].getRGB());
-					}
-					else if(
-							c < a
-							&& c < b
-							&& c < d
-							&& c < e
-					){
-						k_means2c[1] += pixel.getRed();
-						k_means2c[2] += pixel.getGreen();
-						k_means2c[3] += pixel.getBlue();
-						k_meansi[2]++;
-						temp.setRGB(w, h, k_means[2].getRGB());
-					}
-					else if(
-							d < a
-							&& d < b
-							&& d < c
-							&& d < e
-							){
-						k_means3c[1] += pixel.getRed();
-						k_means3c[2] += pixel.getGreen();
-						k_means3c[3] += pixel.getBlue();
-						k_meansi[3]++;
-						temp.setRGB(w,h,k_means[3].getRGB());
-					}
-					else{
-						k_means4c[1] += pixel.getRed();
-						k_means4c[2] += pixel.getGreen();
-						k_means4c[3] += pixel.getBlue();
-						k_meansi[4]++;
-						temp.setRGB(w,h,k_means[4].getRGB());
-						}
-				}
-
-			}
-			if(k_meansi[0]>0){
-				k_means[0]=avg(k_meansc,k_meansi[0]);	
-			}
-			if(k_meansi[1]>0){ 
-				k_means[1]=avg(k_means1c,k_meansi[1]);	
-			}
-			if(k_meansi[2]>0){
-				k_means[2]=avg(k_means2c,k_meansi[2]);	
-			}
-			if(k_meansi[3]>0){	
-				k_means[3]=avg(k_means3c,k_meansi[3]);	
-			}
-			if(k_meansi[4]>0){	
-				k_means[4]=avg(k_means4c,k_meansi[4]);	
-			}
-			k_meansc=new int[4];
-			k_means1c=new int[4];
-			k_means2c=new int[4];
-			k_means3c=new int[4];
-			k_means4c=new int[4];
-			k_meansi=new int[5];
-
-			// Redraw the image with new segments
-			//loop through the images
-			int mid;
-			if(width==0){mid = temp.getRGB(img.getWidth()/2, img.getHeight()/2);}
-			else{mid = temp.getRGB(x +(width - width%2)/2, y +(height - height%2)/2);}
-			for(int w=0; w < img.getWidth(); w++){
-				for(int h=0; h < img.getHeight(); h++){
-					temp.setRGB(w,h,
-						(temp.getRGB(w,h) == mid) ? img.getRGB(w,h) : (w==x || h==y) ? 255 : 0
-					);
-				}
-			}
-			if(ic%5==0)
-				ImageIO.write( temp, "jpg", new File( "src/main/resources/segmented/"+ic+"-"+name) );
-
-		}
+	public static SegmentationResult SegmentImage(String name, BufferedImage img,int x, int y,int height, int width){
+		return SegmentImage(name, img, x, y, height, width, new SegmentationOptions());
+	}
 
-		// finalize the image.
-		ImageIO.write( temp, "jpg", new File( "src/main/resources/segmented/final-"+name));
+	public static SegmentationResult SegmentImage(String name, BufferedImage img,int x, int y,int height, int width,
+			SegmentationOptions options){
+		// cluster 0 is anchored on the middle of the face box, or the image center without one.
+		int centerX = width==0 ? img.getWidth()/2 : x +(width - width%2)/2;
+		int centerY = width==0 ? img.getHeight()/2 : y +(height - height%2)/2;
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		int[] seeds = options.seeds(rgb, img.getWidth(), img.getHeight(), centerY*img.getWidth() + centerX, options.random());
+		return new SegmentationSession(name, rgb, img.getWidth(), img.getHeight(), seeds,
+				centerX, centerY, x, y, options).run();
 	}
 
 
-	// return the hsv conversion.
-	// L = (r+g+b)/3
-	// s =( r-b) /2
-	// t = (2g-r-b)/4
-	static double[] lst(Color c){
-		double[] hsv = new double[3];
-		hsv[0]=(c.getRed()+c.getBlue()+c.getGreen())/3.;
-		hsv[1]=(c.getRed()-c.getBlue())/2.;
-		hsv[2]=(2.*c.getGreen()-c.getRed()-c.getBlue())/4.;
-		return hsv;  
-	}
-	
-	static float[] hsv(Color c){
-		return c.RGBtoHSB(c.getRed(),c.getGreen(), c.getBlue(),null);
-		  
-	}
-	
-	// return the euclidean distance.
-	static double dist(float[] hsv, float[] hsv0){
-		return
-		Math.pow(Math.pow(Math.abs(hsv[0]-hsv0[0]),2.) +
-				Math.pow(Math.abs(hsv[1]-hsv0[1]),2.) +
-				Math.pow(Math.abs(hsv[2]-hsv0[2]),2.),.5);
-	}
-	
-	// return the average color.
-	static Color avg(int[] vals,int num){
-		return new Color(
-				(float)(vals[1]/num/255.),
-				(float)(vals[2]/num/255.),
-				(float)(vals[3]/num/255.)
-		);
-	}
-	
-	
-	// Histogram Analysis.
-	static void initialize(BufferedImage img, int num_centroids, int x, int y, int h, int w){
-		
-		k_means = new Color[num_centroids];
-		if(w==0){
-		k_means[0] = new Color(img.getRGB(
-				(int) (img.getWidth()/2),
-				(int)(img.getHeight()/2)
-		));
-		}else{
-			System.out.println(x+"|"+y+"|"+h+"|"+w);
-			k_means[0] = new Color(img.getRGB(x +(w - w%2)/2, y +(h - h%2)/2));
+	// Region of interest mode: only the face box grown by options.getMargin()
+	// of its size on every side (clipped to the image) is clustered and redrawn.
+	// The result image is full size, everything outside the region is drawn as
+	// background. Without a face box (width 0) the whole image is segmented.
+	public static SegmentationResult SegmentRegion(String name, BufferedImage img,int x, int y,int height, int width,
+			SegmentationOptions options){
+		if(width==0){
+			return SegmentImage(name, img, x, y, height, width, options);
 		}
-		for(int i=1; i<num_centroids; i++){
-			k_means[i] = new Color(img.getRGB(
-					(int)(Math.random()*img.getWidth()),
-					(int)(Math.random()*img.getHeight())
-			));		
+		int imageWidth = img.getWidth(), imageHeight = img.getHeight();
+		int mx = (int) Math.round(width*options.getMargin()), my = (int) Math.round(height*options.getMargin());
+		int left = Math.max(0, x - mx), top = Math.max(0, y - my);
+		int right = Math.min(imageWidth, x + width + mx), bottom = Math.min(imageHeight, y + height + my);
+		int centerX = x +(width - width%2)/2, centerY = y +(height - height%2)/2;
+		if(centerX < left || centerX >= right || centerY < top || centerY >= bottom){
+			throw new IllegalArgumentException("face box "+x+","+y+" "+width+"x"+height+" is outside the "+imageWidth+"x"+imageHeight+" image");
 		}
-		
+		int w = right - left, h = bottom - top;
+		int[] rgb = Rasters.region(Rasters.data(Rasters.toIntRGB(img)), imageWidth, left, top, w, h);
+		int[] seeds = options.seeds(rgb, w, h, (centerY - top)*w + centerX - left, options.random());
+		SegmentationSession session = new SegmentationSession(name, rgb, w, h, seeds,
+				centerX - left, centerY - top, x - left, y - top, options);
+		session.place(imageWidth, imageHeight, left, top);
+		return session.run();
 	}
 
-	// I was running in on a java problem where the filters were applying to other BufferedImages
-	// - BufferedImages doesn't have an exposed .clone() so i found this function online:
-	static BufferedImage deepCopy(BufferedImage bi) {
-		ColorModel cm = bi.getColorModel();
-		boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-		WritableRaster raster = bi.copyData(null);
-		return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+	// SegmentRegion around the largest face options.getFaceDetector() finds,
+	// the whole image like SegmentImage without a detector or a face.
+	public static SegmentationResult SegmentFace(String name, BufferedImage img, SegmentationOptions options){
+		FaceDetector faces = options.getFaceDetector();
+		Rectangle face = faces == null ? null : faces.largest(img);
+		if(face == null){
+			return SegmentImage(name, img, 0, 0, 0, 0, options);
+		}
+		return SegmentRegion(name, img, face.x, face.y, face.height, face.width, options);
 	}
 
 }
@@ -0,0 +1,138 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import elections.model.Photo;
+
+// Decodes a training directory once into an ImageCorpus.
+//
+// Every jpg under dir is decoded on a pool of worker threads (subsampled to
+// about workingPixels when that's not 0) and appended to the corpus with its
+// label from the directory name, like BatchFeatures. With segment the image
+// is also segmented and its label map and Photo features are stored, so the
+// trainer can read the features straight from the corpus. Records are
+// written in the order of the directory walk whatever thread finishes first,
+// and at most inFlight decoded images are held at any time.
+//
+//   java elections.tools.CorpusBuilder [dir=src/main/resources/imgs/data] [out=corpus.bin] [workingPixels=0] [threads=cores] [segment=false] [inFlight=2*threads]
+public class CorpusBuilder {
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs/data");
+		File out = new File(args.length > 1 ? args[1] : "corpus.bin");
+		int workingPixels = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		final boolean segment = args.length > 4 && Boolean.parseBoolean(args[4]);
+		int inFlight = args.length > 5 ? Integer.parseInt(args[5]) : 2*threads;
+
+		List<File> files = new ArrayList<File>();
+		BatchFeatures.collect(dir, files);
+
+		// no byte or pixel limits here, the directory is trusted; only the subsampling.
+		final ImageIngest ingest = workingPixels > 0
+				? new ImageIngest(Long.MAX_VALUE, Long.MAX_VALUE, workingPixels, Long.MAX_VALUE, Long.MAX_VALUE)
+				: null;
+		final String root = dir.getPath();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<Decoded>> pending = new LinkedList<Future<Decoded>>();
+		ImageCorpus.Writer corpus = new ImageCorpus.Writer(out);
+
+		long start = System.nanoTime();
+		int failed = 0;
+		try{
+			for(final File file : files){
+				// the oldest image holds up the others; wait for it when there are too many.
+				while(pending.size() >= inFlight){
+					failed += write(pending.removeFirst(), corpus);
+				}
+				pending.add(pool.submit(new Callable<Decoded>(){
+					public Decoded call() throws Exception{
+						try{
+							String name = file.getPath().substring(root.length()+1);
+							return decode(name, file, BatchFeatures.isPositive(file), ingest, segment);
+						}catch(Exception e){
+							throw new Exception(file.getPath(), e);
+						}
+					}
+				}));
+				// write the finished ones at the head, keeping the walk order.
+				while(!pending.isEmpty() && pending.getFirst().isDone()){
+					failed += write(pending.removeFirst(), corpus);
+				}
+			}
+			while(!pending.isEmpty()){
+				failed += write(pending.removeFirst(), corpus);
+			}
+		}finally{
+			corpus.close();
+			pool.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.println(corpus.getWritten()+" images, "+failed+" failed, "+String.format("%.1f", seconds)+"s, "
+				+String.format("%.1f", corpus.getWritten()/seconds)+" images/s on "+threads+" threads -> "+out
+				+" ("+out.length()/(1024*1024)+" MB)");
+	}
+
+	static Decoded decode(String name, File file, boolean positive, ImageIngest ingest, boolean segment) throws Exception{
+		BufferedImage img;
+		if(ingest != null){
+			ImageIngest.Ingested ingested = ingest.read(file);
+			try{
+				img = ingested.getImage();
+			}finally{
+				ingested.close();
+			}
+		}else{
+			img = Rasters.toIntRGB(Rasters.read(file));
+		}
+		Decoded decoded = new Decoded(name, positive, img);
+		if(segment){
+			SegmentationOptions options = new SegmentationOptions();
+			options.setParallelism(1);
+			int[] rgb = Rasters.data(img);
+			SegmentationSession session = FeatureExtractor.fit(name, rgb, img.getWidth(), img.getHeight(), options);
+			decoded.photo = FeatureExtractor.extract(session, IntBuffer.wrap(rgb), positive, options);
+			decoded.labels = session.getLabels();
+		}
+		return decoded;
+	}
+
+	// returns 1 when the image failed.
+	static int write(Future<Decoded> f, ImageCorpus.Writer corpus) throws Exception{
+		try{
+			Decoded d = f.get();
+			corpus.write(d.name, d.positive, ImageBuffer.wrap(d.image), d.labels, d.photo);
+			return 0;
+		}catch(ExecutionException e){
+			System.err.println("skipped " + e.getCause().getMessage() + ": " + e.getCause().getCause());
+			return 1;
+		}
+	}
+
+	// a decoded image, and its segmentation when asked for.
+	static class Decoded {
+		final String name;
+		final boolean positive;
+		final BufferedImage image;
+		byte[] labels;
+		Photo photo;
+
+		Decoded(String name, boolean positive, BufferedImage image){
+			this.name = name;
+			this.positive = positive;
+			this.image = image;
+		}
+	}
+
+}
@@ -0,0 +1,793 @@
+package elections.tools;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.yammer.metrics.core.TimerContext;
+
+// Viola-Jones face detection with an OpenCV Haar cascade, on the CPU.
+//
+// The cascade is read from an OpenCV XML file, either format: the current one
+// (opencv-cascade-classifier, e.g. haarcascade_frontalface_default.xml) or the
+// old opencv-haar-classifier one. Only upright Haar features are supported.
+//
+// The image is turned to gray (averaged down first when its longer side is
+// over maxSide) and gets an integral image and an integral image of squares,
+// so every rectangle sum and the variance of every window cost four reads.
+// Instead of resizing the image, the features are scaled: each scale, from
+// the cascade's window up by scaleFactor until the window doesn't fit, slides
+// the window over the image in bands of rows, and the bands of every scale are
+// fork/join tasks on the ParallelAssignment pool. A window is dropped at the
+// first stage whose sum is under the stage threshold, which for most windows
+// is one of the first two; how many windows every stage rejected is counted
+// (getRejected()), to see what each stage costs and catches.
+//
+// The windows that get through every stage are grouped like OpenCV's
+// groupRectangles: overlapping hits are averaged, and groups of no more than
+// minNeighbors hits are dropped. The faces come out largest first.
+//
+// Settings are changed before the detector is shared; detect() is thread safe.
+public class FaceDetector {
+
+	static final String CASCADE_PROPERTY = "elections.face.cascade";
+
+	// hits closer than this fraction of their size are one face.
+	static final double GROUP_EPS = 0.2;
+
+	private static volatile FaceDetector configured;
+	private static volatile boolean loaded;
+
+	// the cascade's window.
+	final int windowWidth, windowHeight;
+	// stage s has the weak classifiers stageStart[s] to stageStart[s+1].
+	final int[] stageStart;
+	final float[] stageThreshold;
+	// weak classifier w has the nodes nodeStart[w].. and the leaves leafStart[w]..
+	// A child <= 0 is the leaf -child, a child > 0 another node of the classifier.
+	final int[] nodeStart, leafStart;
+	final int[] nodeFeature, nodeLeft, nodeRight;
+	final float[] nodeThreshold;
+	final float[] leaves;
+	// up to RECTS rectangles per feature, x y w h each (w 0 when unused), and their weights.
+	static final int RECTS = 3;
+	final int[] rects;
+	final float[] weights;
+
+	private double scaleFactor = 1.1;
+	private int minNeighbors = 3;
+	// smallest face looked for in pixels of the image; 0 is the cascade window.
+	private int minSize;
+	// images with a longer side are averaged down to about this first; 0 never.
+	private int maxSide = 640;
+	// fork/join workers per image; 0 means ParallelAssignment.defaultParallelism().
+	private int parallelism;
+
+	// windows looked at and windows rejected by each stage, since the last reset.
+	private final AtomicLong windows = new AtomicLong(), images = new AtomicLong(), faces = new AtomicLong();
+	private final AtomicLongArray rejected;
+
+	FaceDetector(int windowWidth, int windowHeight, int[] stageStart, float[] stageThreshold,
+			int[] nodeStart, int[] leafStart, int[] nodeFeature, int[] nodeLeft, int[] nodeRight,
+			float[] nodeThreshold, float[] leaves, int[] rects, float[] weights){
+		this.windowWidth = windowWidth;
+		this.windowHeight = windowHeight;
+		this.stageStart = stageStart;
+		this.stageThreshold = stageThreshold;
+		this.nodeStart = nodeStart;
+		this.leafStart = leafStart;
+		this.nodeFeature = nodeFeature;
+		this.nodeLeft = nodeLeft;
+		this.nodeRight = nodeRight;
+		this.nodeThreshold = nodeThreshold;
+		this.leaves = leaves;
+		this.rects = rects;
+		this.weights = weights;
+		this.rejected = new AtomicLongArray(stageThreshold.length);
+	}
+
+	// the detector of -Delections.face.cascade=FILE, loaded once; null without
+	// the property or when the file can't be read.
+	public static FaceDetector configured(){
+		if(!loaded){
+			synchronized(FaceDetector.class){
+				if(!loaded){
+					String file = System.getProperty(CASCADE_PROPERTY);
+					if(file != null){
+						try{
+							configured = load(new File(file));
+						}catch(IOException e){
+							System.err.println(e.toString()+" || "+file+", no face detection");
+						}
+					}
+					loaded = true;
+				}
+			}
+		}
+		return configured;
+	}
+
+	public static FaceDetector load(File file) throws IOException{
+		Element root;
+		try{
+			root = first(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement());
+		}catch(IOException e){
+			throw e;
+		}catch(Exception e){
+			throw new IOException("can't parse " + file, e);
+		}
+		if(root == null){
+			throw new IOException(file + " is empty");
+		}
+		Cascade cascade = new Cascade();
+		if(child(root, "stageType") != null){
+			cascade.current(root, file);
+		}else if(child(root, "size") != null){
+			cascade.old(root, file);
+		}else{
+			throw new IOException(file + " is not an OpenCV Haar cascade");
+		}
+		return cascade.detector();
+	}
+
+	// the faces in img, largest first.
+	public List<Rectangle> detect(BufferedImage img){
+		return detect(IntBuffer.wrap(Rasters.data(Rasters.toIntRGB(img))), img.getWidth(), img.getHeight());
+	}
+
+	public List<Rectangle> detect(IntBuffer rgb, int width, int height){
+		TimerContext timer = SegmentationMetrics.FACE_DETECT.time();
+		try{
+			int factor = maxSide > 0 ? (Math.max(width, height) + maxSide - 1)/maxSide : 1;
+			Integral integral = new Integral(rgb, width, height, Math.max(1, factor));
+			List<Rectangle> hits = scan(integral);
+			List<Rectangle> found = group(hits, minNeighbors);
+			for(Rectangle face : found){
+				face.setBounds(face.x*integral.factor, face.y*integral.factor,
+						face.width*integral.factor, face.height*integral.factor);
+			}
+			images.incrementAndGet();
+			faces.addAndGet(found.size());
+			SegmentationMetrics.FACES.inc(found.size());
+			return found;
+		}finally{
+			timer.stop();
+		}
+	}
+
+	// the largest face in img, null without one.
+	public Rectangle largest(BufferedImage img){
+		List<Rectangle> found = detect(img);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	// every window that passes all the stages, scales in order and rows in order.
+	List<Rectangle> scan(Integral integral){
+		int workers = parallelism > 0 ? parallelism : ParallelAssignment.defaultParallelism();
+		int min = Math.max(1, minSize/integral.factor);
+		final List<Scan> tasks = new ArrayList<Scan>();
+		for(double s=1; Math.round(windowWidth*s) <= integral.width && Math.round(windowHeight*s) <= integral.height; s *= scaleFactor){
+			if(Math.round(windowWidth*s) < min || Math.round(windowHeight*s) < min){
+				continue;
+			}
+			Scale scale = new Scale(s, integral.width + 1);
+			int rows = (integral.height - scale.height)/scale.step + 1;
+			int bands = Math.min(workers, rows);
+			for(int b=0; b < bands; b++){
+				tasks.add(new Scan(integral, scale, rows*b/bands, rows*(b+1)/bands));
+			}
+		}
+		if(workers > 1 && tasks.size() > 1){
+			ParallelAssignment.pool().invoke(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+
+				protected void compute(){
+					invokeAll(tasks);
+				}
+			});
+		}else{
+			for(Scan task : tasks){
+				task.invoke();
+			}
+		}
+
+		List<Rectangle> hits = new ArrayList<Rectangle>();
+		long looked = 0;
+		long[] stages = new long[stageThreshold.length];
+		for(Scan task : tasks){
+			hits.addAll(task.hits);
+			looked += task.windows;
+			for(int i=0; i < stages.length; i++){
+				stages[i] += task.rejected[i];
+			}
+		}
+		windows.addAndGet(looked);
+		SegmentationMetrics.FACE_WINDOWS.inc(looked);
+		for(int i=0; i < stages.length; i++){
+			rejected.addAndGet(i, stages[i]);
+		}
+		return hits;
+	}
+
+	// 0 if the window at top left offset base passes every stage, otherwise
+	// 1 + the stage that rejected it.
+	int evaluate(long[] sum, Scale scale, int base, double norm){
+		int[] offsets = scale.offsets;
+		float[] w = scale.weights;
+		for(int st=0; st < stageThreshold.length; st++){
+			double stage = 0;
+			for(int weak=stageStart[st]; weak < stageStart[st+1]; weak++){
+				int nodes = nodeStart[weak];
+				int n = 0;
+				while(true){
+					int f = nodeFeature[nodes + n];
+					int o = f*RECTS*4, at = base;
+					double value = w[f*RECTS]*(sum[at + offsets[o+3]] - sum[at + offsets[o+1]] - sum[at + offsets[o+2]] + sum[at + offsets[o]])
+							+ w[f*RECTS+1]*(sum[at + offsets[o+7]] - sum[at + offsets[o+5]] - sum[at + offsets[o+6]] + sum[at + offsets[o+4]]);
+					if(w[f*RECTS+2] != 0){
+						value += w[f*RECTS+2]*(sum[at + offsets[o+11]] - sum[at + offsets[o+9]] - sum[at + offsets[o+10]] + sum[at + offsets[o+8]]);
+					}
+					int next = value < nodeThreshold[nodes + n]*norm ? nodeLeft[nodes + n] : nodeRight[nodes + n];
+					if(next <= 0){
+						stage += leaves[leafStart[weak] - next];
+						break;
+					}
+					n = next;
+				}
+			}
+			if(stage < stageThreshold[st]){
+				return st + 1;
+			}
+		}
+		return 0;
+	}
+
+	// OpenCV's groupRectangles.
+	static List<Rectangle> group(List<Rectangle> hits, int minNeighbors){
+		int n = hits.size();
+		int[] parent = new int[n];
+		for(int i=0; i < n; i++){
+			parent[i] = i;
+		}
+		for(int i=0; i < n; i++){
+			for(int j=0; j < i; j++){
+				if(similar(hits.get(i), hits.get(j))){
+					int a = root(parent, i), b = root(parent, j);
+					if(a != b){
+						parent[Math.max(a, b)] = Math.min(a, b);
+					}
+				}
+			}
+		}
+		// average each group, in order of its first hit.
+		int[] group = new int[n];
+		List<double[]> sums = new ArrayList<double[]>();
+		for(int i=0; i < n; i++){
+			int r = root(parent, i);
+			if(r == i){
+				group[i] = sums.size();
+				sums.add(new double[5]);
+			}else{
+				group[i] = group[r];
+			}
+			Rectangle hit = hits.get(i);
+			double[] s = sums.get(group[i]);
+			s[0] += hit.x;
+			s[1] += hit.y;
+			s[2] += hit.width;
+			s[3] += hit.height;
+			s[4]++;
+		}
+		List<Rectangle> averaged = new ArrayList<Rectangle>();
+		List<Integer> neighbors = new ArrayList<Integer>();
+		for(double[] s : sums){
+			if(s[4] <= minNeighbors){
+				continue;
+			}
+			averaged.add(new Rectangle((int) Math.round(s[0]/s[4]), (int) Math.round(s[1]/s[4]),
+					(int) Math.round(s[2]/s[4]), (int) Math.round(s[3]/s[4])));
+			neighbors.add((int) s[4]);
+		}
+		// drop the smaller faces inside a better supported one.
+		List<Rectangle> faces = new ArrayList<Rectangle>();
+		for(int i=0; i < averaged.size(); i++){
+			Rectangle r1 = averaged.get(i);
+			int n1 = neighbors.get(i);
+			boolean inside = false;
+			for(int j=0; j < averaged.size() && !inside; j++){
+				if(j == i){
+					continue;
+				}
+				Rectangle r2 = averaged.get(j);
+				int n2 = neighbors.get(j);
+				int dx = (int) Math.round(r2.width*GROUP_EPS), dy = (int) Math.round(r2.height*GROUP_EPS);
+				inside = (n2 > Math.max(3, n1) || n1 < 3)
+						&& r1.x >= r2.x - dx && r1.y >= r2.y - dy
+						&& r1.x + r1.width <= r2.x + r2.width + dx && r1.y + r1.height <= r2.y + r2.height + dy;
+			}
+			if(!inside){
+				faces.add(r1);
+			}
+		}
+		Collections.sort(faces, new Comparator<Rectangle>(){
+			public int compare(Rectangle a, Rectangle b){
+				long d = (long) b.width*b.height - (long) a.width*a.height;
+				return d < 0 ? -1 : d > 0 ? 1 : 0;
+			}
+		});
+		return faces;
+	}
+
+	static boolean similar(Rectangle a, Rectangle b){
+		double delta = GROUP_EPS*(Math.min(a.width, b.width) + Math.min(a.height, b.height))*0.5;
+		return Math.abs(a.x - b.x) <= delta && Math.abs(a.y - b.y) <= delta
+				&& Math.abs(a.x + a.width - b.x - b.width) <= delta
+				&& Math.abs(a.y + a.height - b.y - b.height) <= delta;
+	}
+
+	static int root(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	// the gray image, integral of it and integral of its squares, each
+	// (width+1)*(height+1) with a zero first row and column. Both are long:
+	// with maxSide 0 an image over about 8.4M pixels would overflow an int sum.
+	static class Integral {
+		final int width, height, factor;
+		final long[] sum;
+		final long[] squares;
+
+		Integral(IntBuffer rgb, int imageWidth, int imageHeight, int factor){
+			this.factor = factor;
+			this.width = imageWidth/factor;
+			this.height = imageHeight/factor;
+			int stride = width + 1;
+			sum = new long[stride*(height + 1)];
+			squares = new long[stride*(height + 1)];
+			int area = factor*factor;
+			for(int y=0; y < height; y++){
+				int row = 0;
+				long rowSquares = 0;
+				for(int x=0; x < width; x++){
+					int g = 0;
+					for(int dy=0; dy < factor; dy++){
+						int at = (y*factor + dy)*imageWidth + x*factor;
+						for(int dx=0; dx < factor; dx++){
+							g += gray(rgb.get(at + dx));
+						}
+					}
+					g = (g + area/2)/area;
+					row += g;
+					rowSquares += g*g;
+					int i = (y + 1)*stride + x + 1;
+					sum[i] = sum[i - stride] + row;
+					squares[i] = squares[i - stride] + rowSquares;
+				}
+			}
+		}
+
+		// OpenCV's rgb to gray weights.
+		static int gray(int p){
+			return (((p >> 16) & 0xff)*4899 + ((p >> 8) & 0xff)*9617 + (p & 0xff)*1868 + 8192) >> 14;
+		}
+	}
+
+	// the cascade scaled by s, as offsets into an integral image of the given stride.
+	class Scale {
+		final int width, height, step;
+		// four corners per rectangle, RECTS rectangles per feature.
+		final int[] offsets;
+		final float[] weights;
+		// the window less a border of one (scaled) pixel, for the variance.
+		final int[] norm = new int[4];
+		final double normArea;
+
+		Scale(double s, int stride){
+			width = (int) Math.round(windowWidth*s);
+			height = (int) Math.round(windowHeight*s);
+			step = (int) Math.max(1, Math.round(s > 2 ? s : 2*s));
+			int features = FaceDetector.this.weights.length/RECTS;
+			offsets = new int[features*RECTS*4];
+			weights = new float[features*RECTS];
+			for(int f=0; f < features; f++){
+				double rest = 0;
+				int first = 0;
+				for(int r=0; r < RECTS; r++){
+					int at = (f*RECTS + r)*4;
+					if(rects[at + 2] == 0){
+						continue;
+					}
+					int x = (int) Math.round(rects[at]*s), y = (int) Math.round(rects[at + 1]*s);
+					// the rounding can take a rectangle past the scaled window.
+					int w = Math.min((int) Math.round(rects[at + 2]*s), width - x);
+					int h = Math.min((int) Math.round(rects[at + 3]*s), height - y);
+					corners(offsets, at, x, y, w, h, stride);
+					weights[f*RECTS + r] = FaceDetector.this.weights[f*RECTS + r];
+					if(r == 0){
+						first = w*h;
+					}else{
+						rest += FaceDetector.this.weights[f*RECTS + r]*w*h;
+					}
+				}
+				// keep the feature summing to zero on a flat window after the rounding.
+				if(first > 0 && rest != 0){
+					weights[f*RECTS] = (float)(-rest/first);
+				}
+			}
+			int nx = (int) Math.round(s), ny = (int) Math.round(s);
+			int nw = (int) Math.round((windowWidth - 2)*s), nh = (int) Math.round((windowHeight - 2)*s);
+			corners(norm, 0, nx, ny, nw, nh, stride);
+			normArea = (double) nw*nh;
+		}
+	}
+
+	static void corners(int[] offsets, int at, int x, int y, int w, int h, int stride){
+		offsets[at]     = y*stride + x;
+		offsets[at + 1] = y*stride + x + w;
+		offsets[at + 2] = (y + h)*stride + x;
+		offsets[at + 3] = (y + h)*stride + x + w;
+	}
+
+	// the windows of one scale in rows from to to (in steps).
+	class Scan extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Integral integral;
+		final Scale scale;
+		final int from, to;
+		final List<Rectangle> hits = new ArrayList<Rectangle>();
+		final long[] rejected = new long[stageThreshold.length];
+		long windows;
+
+		Scan(Integral integral, Scale scale, int from, int to){
+			this.integral = integral;
+			this.scale = scale;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute(){
+			int stride = integral.width + 1;
+			long[] sum = integral.sum;
+			long[] squares = integral.squares;
+			int[] norm = scale.norm;
+			double area = scale.normArea;
+			for(int r=from; r < to; r++){
+				int y = r*scale.step;
+				for(int x=0; x + scale.width <= integral.width; x += scale.step){
+					int base = y*stride + x;
+					long s = sum[base + norm[3]] - sum[base + norm[1]] - sum[base + norm[2]] + sum[base + norm[0]];
+					long sq = squares[base + norm[3]] - squares[base + norm[1]] - squares[base + norm[2]] + squares[base + norm[0]];
+					double variance = area*sq - (double) s*s;
+					double nf = variance > 0 ? Math.sqrt(variance) : 1;
+					int stage = evaluate(sum, scale, base, nf);
+					windows++;
+					if(stage == 0){
+						hits.add(new Rectangle(x, y, scale.width, scale.height));
+					}else{
+						rejected[stage - 1]++;
+					}
+				}
+			}
+		}
+	}
+
+	// the cascade as it is read, flattened into the detector's arrays.
+	static class Cascade {
+		int width, height;
+		final List<Integer> stageStart = new ArrayList<Integer>(), nodeStart = new ArrayList<Integer>(), leafStart = new ArrayList<Integer>();
+		final List<Float> stageThreshold = new ArrayList<Float>();
+		final List<Integer> nodeFeature = new ArrayList<Integer>(), nodeLeft = new ArrayList<Integer>(), nodeRight = new ArrayList<Integer>();
+		final List<Float> nodeThreshold = new ArrayList<Float>(), leaves = new ArrayList<Float>();
+		final List<int[]> rects = new ArrayList<int[]>();
+		final List<float[]> weights = new ArrayList<float[]>();
+
+		// <cascade> with <stages> of <weakClassifiers> and a separate <features> list.
+		void current(Element root, File file) throws IOException{
+			if(!"BOOST".equals(text(root, "stageType")) || !"HAAR".equals(text(root, "featureType"))){
+				throw new IOException(file + " is not a boosted Haar cascade");
+			}
+			width = Integer.parseInt(text(root, "width"));
+			height = Integer.parseInt(text(root, "height"));
+			for(Element f : items(child(root, "features"))){
+				feature(f, file);
+			}
+			for(Element stage : items(child(root, "stages"))){
+				stageStart.add(nodeStart.size());
+				stageThreshold.add(Float.parseFloat(text(stage, "stageThreshold")));
+				for(Element weak : items(child(stage, "weakClassifiers"))){
+					String[] nodes = split(text(weak, "internalNodes"));
+					if(nodes.length % 4 != 0){
+						throw new IOException(file + " has categorical nodes, not a Haar cascade");
+					}
+					nodeStart.add(nodeFeature.size());
+					leafStart.add(leaves.size());
+					for(int n=0; n < nodes.length; n += 4){
+						nodeLeft.add(Integer.parseInt(nodes[n]));
+						nodeRight.add(Integer.parseInt(nodes[n+1]));
+						int f = Integer.parseInt(nodes[n+2]);
+						if(f < 0 || f >= rects.size()){
+							throw new IOException(file + " refers to feature " + f + " of " + rects.size());
+						}
+						nodeFeature.add(f);
+						nodeThreshold.add(Float.parseFloat(nodes[n+3]));
+					}
+					for(String leaf : split(text(weak, "leafValues"))){
+						leaves.add(Float.parseFloat(leaf));
+					}
+				}
+			}
+		}
+
+		// <size> and <stages> of <trees>, every node with its own <feature>.
+		void old(Element root, File file) throws IOException{
+			String[] size = split(text(root, "size"));
+			width = Integer.parseInt(size[0]);
+			height = Integer.parseInt(size[1]);
+			for(Element stage : items(child(root, "stages"))){
+				stageStart.add(nodeStart.size());
+				stageThreshold.add(Float.parseFloat(text(stage, "stage_threshold")));
+				for(Element tree : items(child(stage, "trees"))){
+					nodeStart.add(nodeFeature.size());
+					leafStart.add(leaves.size());
+					for(Element node : items(tree)){
+						nodeFeature.add(rects.size());
+						feature(child(node, "feature"), file);
+						nodeThreshold.add(Float.parseFloat(text(node, "threshold")));
+						nodeLeft.add(branch(node, "left"));
+						nodeRight.add(branch(node, "right"));
+					}
+				}
+			}
+		}
+
+		// a child node, or a new leaf as -its index.
+		int branch(Element node, String side) throws IOException{
+			String child = text(node, side + "_node");
+			if(child != null){
+				return Integer.parseInt(child);
+			}
+			int at = leaves.size() - leafStart.get(leafStart.size() - 1);
+			leaves.add(Float.parseFloat(text(node, side + "_val")));
+			return -at;
+		}
+
+		void feature(Element feature, File file) throws IOException{
+			if(feature == null){
+				throw new IOException(file + " has a node without a feature");
+			}
+			String tilted = text(feature, "tilted");
+			if(tilted != null && Integer.parseInt(tilted) != 0){
+				throw new IOException(file + " has tilted features, which aren't supported");
+			}
+			List<Element> list = items(child(feature, "rects"));
+			if(list.isEmpty() || list.size() > RECTS){
+				throw new IOException(file + " has a feature with " + list.size() + " rectangles");
+			}
+			int[] r = new int[RECTS*4];
+			float[] w = new float[RECTS];
+			for(int i=0; i < list.size(); i++){
+				String[] values = split(list.get(i).getTextContent());
+				for(int j=0; j < 4; j++){
+					r[i*4 + j] = Integer.parseInt(values[j]);
+				}
+				w[i] = Float.parseFloat(values[4]);
+			}
+			rects.add(r);
+			weights.add(w);
+		}
+
+		FaceDetector detector() throws IOException{
+			if(stageThreshold.isEmpty() || width <= 2 || height <= 2){
+				throw new IOException("empty cascade");
+			}
+			int[] allRects = new int[rects.size()*RECTS*4];
+			float[] allWeights = new float[weights.size()*RECTS];
+			for(int f=0; f < rects.size(); f++){
+				int[] r = rects.get(f);
+				for(int i=0; i < RECTS; i++){
+					// a rectangle outside the window would read past the integral image.
+					if(r[i*4+2] > 0 && (r[i*4] < 0 || r[i*4+1] < 0 || r[i*4] + r[i*4+2] > width || r[i*4+1] + r[i*4+3] > height)){
+						throw new IOException("feature " + f + " is outside the " + width + "x" + height + " window");
+					}
+				}
+				System.arraycopy(r, 0, allRects, f*RECTS*4, RECTS*4);
+				System.arraycopy(weights.get(f), 0, allWeights, f*RECTS, RECTS);
+			}
+			// a child pointing outside its classifier would loop or read another one's nodes.
+			List<Integer> starts = new ArrayList<Integer>(nodeStart);
+			starts.add(nodeFeature.size());
+			List<Integer> leafStarts = new ArrayList<Integer>(leafStart);
+			leafStarts.add(leaves.size());
+			for(int weak=0; weak < nodeStart.size(); weak++){
+				int nodes = starts.get(weak+1) - starts.get(weak), leafCount = leafStarts.get(weak+1) - leafStarts.get(weak);
+				for(int n=0; n < nodes; n++){
+					for(int child : new int[]{ nodeLeft.get(starts.get(weak) + n), nodeRight.get(starts.get(weak) + n) }){
+						if(child > 0 ? child <= n || child >= nodes : -child >= leafCount){
+							throw new IOException("weak classifier " + weak + " has a bad child " + child);
+						}
+					}
+				}
+			}
+			List<Integer> stages = new ArrayList<Integer>(stageStart);
+			stages.add(nodeStart.size());
+			return new FaceDetector(width, height, ints(stages), floats(stageThreshold),
+					ints(starts), ints(leafStarts), ints(nodeFeature), ints(nodeLeft), ints(nodeRight),
+					floats(nodeThreshold), floats(leaves), allRects, allWeights);
+		}
+	}
+
+	static Element first(Element parent){
+		for(Node n=parent.getFirstChild(); n != null; n=n.getNextSibling()){
+			if(n instanceof Element){
+				return (Element) n;
+			}
+		}
+		return null;
+	}
+
+	static Element child(Element parent, String tag){
+		if(parent == null){
+			return null;
+		}
+		for(Node n=parent.getFirstChild(); n != null; n=n.getNextSibling()){
+			if(n instanceof Element && tag.equals(n.getNodeName())){
+				return (Element) n;
+			}
+		}
+		return null;
+	}
+
+	// the <_> items of an OpenCV list.
+	static List<Element> items(Element parent){
+		List<Element> items = new ArrayList<Element>();
+		if(parent != null){
+			for(Node n=parent.getFirstChild(); n != null; n=n.getNextSibling()){
+				if(n instanceof Element && "_".equals(n.getNodeName())){
+					items.add((Element) n);
+				}
+			}
+		}
+		return items;
+	}
+
+	static String text(Element parent, String tag){
+		Element e = child(parent, tag);
+		return e == null ? null : e.getTextContent().trim();
+	}
+
+	static String[] split(String text){
+		return text.trim().split("\\s+");
+	}
+
+	static int[] ints(List<Integer> list){
+		int[] a = new int[list.size()];
+		for(int i=0; i < a.length; i++){
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+
+	static float[] floats(List<Float> list){
+		float[] a = new float[list.size()];
+		for(int i=0; i < a.length; i++){
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+
+	public int getStages(){
+		return stageThreshold.length;
+	}
+
+	// weak classifiers in stage.
+	public int getStageSize(int stage){
+		return stageStart[stage+1] - stageStart[stage];
+	}
+
+	public int getWindowWidth(){
+		return windowWidth;
+	}
+
+	public int getWindowHeight(){
+		return windowHeight;
+	}
+
+	// images looked at, windows evaluated and faces found since the last reset.
+	public long getImages(){
+		return images.get();
+	}
+
+	public long getWindows(){
+		return windows.get();
+	}
+
+	public long getFaces(){
+		return faces.get();
+	}
+
+	// windows stage rejected.
+	public long getRejected(int stage){
+		return rejected.get(stage);
+	}
+
+	// windows that got to stage.
+	public long getReached(int stage){
+		long reached = windows.get();
+		for(int s=0; s < stage; s++){
+			reached -= rejected.get(s);
+		}
+		return reached;
+	}
+
+	public void resetStatistics(){
+		images.set(0);
+		windows.set(0);
+		faces.set(0);
+		for(int s=0; s < rejected.length(); s++){
+			rejected.set(s, 0);
+		}
+	}
+
+	public double getScaleFactor(){
+		return scaleFactor;
+	}
+
+	public void setScaleFactor(double scaleFactor){
+		if(scaleFactor <= 1){
+			throw new IllegalArgumentException("scale factor " + scaleFactor + " must be over 1");
+		}
+		this.scaleFactor = scaleFactor;
+	}
+
+	public int getMinNeighbors(){
+		return minNeighbors;
+	}
+
+	public void setMinNeighbors(int minNeighbors){
+		this.minNeighbors = minNeighbors;
+	}
+
+	public int getMinSize(){
+		return minSize;
+	}
+
+	public void setMinSize(int minSize){
+		this.minSize = minSize;
+	}
+
+	public int getMaxSide(){
+		return maxSide;
+	}
+
+	public void setMaxSide(int maxSide){
+		this.maxSide = maxSide;
+	}
+
+	public int getParallelism(){
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism){
+		this.parallelism = parallelism;
+	}
+
+}
@@ -0,0 +1,109 @@
+package elections.tools;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// What a face cascade finds and what it costs. Prints the faces FaceDetector
+// finds in every jpg of a directory, the images per second one image at a
+// time (its scales and rows on the fork/join pool) and threads images at a
+// time (one thread each), then for every stage the windows that got to it,
+// the fraction it rejected and the fraction still left after it.
+//
+//   java elections.tools.FaceReport cascade.xml [dir=src/main/resources/imgs] [runs=3] [threads=cores] [minNeighbors=3] [scaleFactor=1.1]
+public class FaceReport {
+
+	public static void main(String[] args) throws Exception{
+		if(args.length < 1){
+			System.err.println("usage: FaceReport cascade.xml [dir] [runs] [threads] [minNeighbors] [scaleFactor]");
+			System.exit(1);
+		}
+		final FaceDetector faces = FaceDetector.load(new File(args[0]));
+		File dir = new File(args.length > 1 ? args[1] : "src/main/resources/imgs");
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		if(args.length > 4){
+			faces.setMinNeighbors(Integer.parseInt(args[4]));
+		}
+		if(args.length > 5){
+			faces.setScaleFactor(Double.parseDouble(args[5]));
+		}
+
+		File[] files = PyramidReport.images(dir);
+		final List<int[]> pixels = new ArrayList<int[]>();
+		final int[] widths = new int[files.length], heights = new int[files.length];
+		System.out.println(faces.getStages()+" stages, "+faces.getWindowWidth()+"x"+faces.getWindowHeight()+" window");
+		System.out.println("image\tsize\tms\tfaces");
+		for(int i=0; i < files.length; i++){
+			BufferedImage img = Rasters.read(files[i]);
+			widths[i] = img.getWidth();
+			heights[i] = img.getHeight();
+			pixels.add(Rasters.data(Rasters.toIntRGB(img)));
+			long start = System.nanoTime();
+			List<Rectangle> found = faces.detect(IntBuffer.wrap(pixels.get(i)), widths[i], heights[i]);
+			StringBuilder boxes = new StringBuilder();
+			for(Rectangle face : found){
+				boxes.append(face.x+","+face.y+" "+face.width+"x"+face.height+" ");
+			}
+			System.out.println(files[i].getName()+"\t"+widths[i]+"x"+heights[i]+"\t"
+					+String.format("%.2f", (System.nanoTime() - start)/1e6)+"\t"+found.size()+"\t"+boxes.toString().trim());
+		}
+
+		// the first pass warmed up the JIT, count from here.
+		faces.resetStatistics();
+		long start = System.nanoTime();
+		for(int r=0; r < runs; r++){
+			for(int i=0; i < files.length; i++){
+				faces.detect(IntBuffer.wrap(pixels.get(i)), widths[i], heights[i]);
+			}
+		}
+		double oneAtATime = runs*files.length/((System.nanoTime() - start)/1e9);
+
+		final FaceDetector single = FaceDetector.load(new File(args[0]));
+		single.setMinNeighbors(faces.getMinNeighbors());
+		single.setScaleFactor(faces.getScaleFactor());
+		single.setParallelism(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for(int r=0; r < runs; r++){
+			for(int i=0; i < files.length; i++){
+				final int image = i;
+				tasks.add(new Callable<Integer>(){
+					public Integer call(){
+						return single.detect(IntBuffer.wrap(pixels.get(image)), widths[image], heights[image]).size();
+					}
+				});
+			}
+		}
+		start = System.nanoTime();
+		for(Future<Integer> done : pool.invokeAll(tasks)){
+			done.get();
+		}
+		double concurrent = tasks.size()/((System.nanoTime() - start)/1e9);
+		pool.shutdown();
+		System.out.println();
+		System.out.println(String.format("%.1f", oneAtATime)+" images/s one at a time (parallelism "
+				+ParallelAssignment.defaultParallelism()+"), "+String.format("%.1f", concurrent)+" images/s "
+				+threads+" at a time");
+
+		System.out.println();
+		System.out.println("stage\tweak classifiers\treached\trejected\trejected fraction\tleft after");
+		long windows = faces.getWindows();
+		for(int s=0; s < faces.getStages(); s++){
+			long reached = faces.getReached(s), rejected = faces.getRejected(s);
+			System.out.println(s+"\t"+faces.getStageSize(s)+"\t"+reached+"\t"+rejected+"\t"
+					+String.format("%.4f", reached == 0 ? 0 : (double) rejected/reached)+"\t"
+					+String.format("%.6f", windows == 0 ? 0 : (double)(reached - rejected)/windows));
+		}
+		System.out.println(windows+" windows in "+faces.getImages()+" images, "+faces.getReached(faces.getStages())
+				+" accepted, "+faces.getFaces()+" faces after grouping");
+	}
+
+}
@@ -0,0 +1,150 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import elections.model.Photo;
+
+// Computes the Photo svm features for one image.
+//
+// The image is segmented with k-means (seeded from the image name, so a rerun
+// gives the same features) and the segment under the image center is the
+// foreground, the same one the segmentation pages keep. The region features
+// come out of the RegionTables of that foreground, the histogram ones out of
+// an ImageStatistics pass.
+//
+//   faceDetected            1 if options.getFaceDetector() finds a face, 0 if
+//                           it doesn't or there is no detector.
+//   binaryFilterDifference  fraction of the pixels where the foreground mask and
+//                           a brightness threshold at the mean V disagree.
+//   quadrant1..4            % of each quadrant that is foreground (Q1 top left,
+//                           then clockwise, as drawn in Photo).
+//   H/S/V meanDivMaxHSV     mean bin / max bin of the 256 bin H, S and V
+//                           histograms, like the histogram-stats page.
+public class FeatureExtractor {
+
+	public static Photo extract(String name, BufferedImage img, boolean positive){
+		SegmentationOptions options = new SegmentationOptions();
+		options.setParallelism(1);
+		return extract(name, img, positive, options);
+	}
+
+	public static Photo extract(String name, ImageBuffer image, boolean positive){
+		SegmentationOptions options = new SegmentationOptions();
+		options.setParallelism(1);
+		return extract(name, image, positive, options);
+	}
+
+	// with a cache in the options, features already computed for the same
+	// pixels and parameters are reused.
+	public static Photo extract(String name, BufferedImage img, boolean positive, SegmentationOptions options){
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		return extract(fit(name, rgb, img.getWidth(), img.getHeight(), options), IntBuffer.wrap(rgb), positive, options);
+	}
+
+	// the same features for an image kept off the heap.
+	public static Photo extract(String name, ImageBuffer image, boolean positive, SegmentationOptions options){
+		int width = image.getWidth(), height = image.getHeight();
+		int[] seeds = options.seeds(image.getPixels(), width, height, (height/2)*width + width/2, random(name, options));
+		SegmentationSession session = new SegmentationSession(name, image, seeds,
+				width/2, height/2, width/2, height/2, options);
+		session.fit();
+		return extract(session, image.getPixels(), positive, options);
+	}
+
+	static Photo extract(SegmentationSession session, IntBuffer pixels, boolean positive, SegmentationOptions options){
+		Photo photo = new Photo();
+		photo.setPositive(positive);
+		SegmentationCache.Entry entry = session.cacheEntry();
+		double[] cached = entry == null ? null : entry.getFeatures();
+		if(cached != null){
+			photo.setFeatures(cached);
+		}else{
+			int width = session.getWidth(), height = session.getHeight();
+			features(ImageStatistics.compute(pixels, width, height, null),
+					RegionTables.build(pixels, width, height, session.getForeground()), photo);
+			if(entry != null){
+				options.getCache().putFeatures(session.cacheKey(), entry, photo.getFeatures());
+			}
+		}
+		// not part of the cached features, the cache key doesn't know the detector.
+		photo.setFaceDetected(faceDetected(pixels, session.getWidth(), session.getHeight(), options));
+		return photo;
+	}
+
+	static double faceDetected(IntBuffer pixels, int width, int height, SegmentationOptions options){
+		FaceDetector faces = options.getFaceDetector();
+		return faces != null && !faces.detect(pixels, width, height).isEmpty() ? 1 : 0;
+	}
+
+	// segments the image and computes its statistics with the center segment as foreground.
+	public static ImageStatistics statistics(String name, BufferedImage img, SegmentationOptions options){
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		return statistics(rgb, fit(name, rgb, img.getWidth(), img.getHeight(), options));
+	}
+
+	static SegmentationSession fit(String name, int[] rgb, int width, int height, SegmentationOptions options){
+		SegmentationSession session = session(name, rgb, width, height, options);
+		session.fit();
+		return session;
+	}
+
+	// the session regions(), statistics() and extract() fit, anchored on the center.
+	static SegmentationSession session(String name, int[] rgb, int width, int height, SegmentationOptions options){
+		int[] seeds = options.seeds(rgb, width, height, (height/2)*width + width/2, random(name, options));
+		return new SegmentationSession(name, rgb, width, height, seeds,
+				width/2, height/2, width/2, height/2, options);
+	}
+
+	// seeded from options.getSeed(), or the name without one.
+	static Random random(String name, SegmentationOptions options){
+		return options.getSeed() != null ? options.random() : new Random(name.hashCode());
+	}
+
+	// segments the image and builds the region tables of its center segment,
+	// with the extra thresholds.
+	public static RegionTables regions(String name, BufferedImage img, SegmentationOptions options,
+			RegionTables.Threshold... thresholds){
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		SegmentationSession session = fit(name, rgb, img.getWidth(), img.getHeight(), options);
+		return RegionTables.build(rgb, session.getWidth(), session.getHeight(), session.getForeground(), thresholds);
+	}
+
+	// the same region tables, but only from a segmentation already in
+	// options.getCache(); null when it isn't there. segment() with the same
+	// options puts it there.
+	public static RegionTables cachedRegions(String name, BufferedImage img, SegmentationOptions options,
+			RegionTables.Threshold... thresholds){
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		SegmentationSession session = session(name, rgb, img.getWidth(), img.getHeight(), options);
+		if(!session.restore()){
+			return null;
+		}
+		return RegionTables.build(rgb, session.getWidth(), session.getHeight(), session.getForeground(), thresholds);
+	}
+
+	// the segmentation regions() builds its tables from, e.g. to fill the cache from a job.
+	public static SegmentationResult segment(String name, BufferedImage img, SegmentationOptions options){
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		return session(name, rgb, img.getWidth(), img.getHeight(), options).fit();
+	}
+
+	static ImageStatistics statistics(int[] rgb, SegmentationSession session){
+		return ImageStatistics.compute(rgb, session.getWidth(), session.getHeight(), session.getForeground());
+	}
+
+	// regions segmented and thresholded, every image through its histograms.
+	static void features(ImageStatistics stats, RegionTables regions, Photo photo){
+		photo.setFaceDetected(0);
+		photo.setBinaryFilterDifference(regions.getBinaryFilterDifference());
+		photo.setQuadrant1(regions.getQuadrant(1));
+		photo.setQuadrant2(regions.getQuadrant(2));
+		photo.setQuadrant3(regions.getQuadrant(3));
+		photo.setQuadrant4(regions.getQuadrant(4));
+		photo.setHmeanDivMaxHSV(stats.getMeanDivMax(ImageStatistics.HUE));
+		photo.setSmeanDivMaxHSV(stats.getMeanDivMax(ImageStatistics.SATURATION));
+		photo.setVmeanDivMaxHSV(stats.getMeanDivMax(ImageStatistics.VALUE));
+	}
+
+}
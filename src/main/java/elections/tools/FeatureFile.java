@@ -0,0 +1,94 @@
+package elections.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import elections.model.Photo;
+
+// Binary file of Photo feature vectors, written by BatchFeatures.
+//
+//   int    MAGIC, int VERSION, int feature count
+//   then per photo: utf name, boolean positive, feature count floats
+//
+// About 40 bytes plus the name per photo.
+public class FeatureFile implements Closeable {
+
+	static final int MAGIC = 0x50484f54; // "PHOT"
+	static final int VERSION = 1;
+	static final int FEATURES = 9;
+
+	private final DataOutputStream out;
+	private int written;
+
+	public FeatureFile(File file) throws IOException{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(FEATURES);
+	}
+
+	public synchronized void write(String name, Photo photo) throws IOException{
+		out.writeUTF(name);
+		out.writeBoolean(photo.isPositive());
+		for(double f : photo.getFeatures()){
+			out.writeFloat((float) f);
+		}
+		written++;
+	}
+
+	public synchronized int getWritten(){
+		return written;
+	}
+
+	public synchronized void close() throws IOException{
+		out.close();
+	}
+
+	// every photo in the file by name, in file order.
+	public static Map<String, Photo> read(File file) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try{
+			if(in.readInt() != MAGIC){
+				throw new IOException(file + " is not a feature file");
+			}
+			int version = in.readInt();
+			if(version != VERSION){
+				throw new IOException(file + ": unsupported version " + version);
+			}
+			int count = in.readInt();
+			Map<String, Photo> photos = new LinkedHashMap<String, Photo>();
+			while(true){
+				String name;
+				try{
+					name = in.readUTF();
+				}catch(EOFException e){
+					return photos;
+				}
+				Photo photo = new Photo();
+				photo.setPositive(in.readBoolean());
+				double[] features = new double[FEATURES];
+				for(int i=0; i < count; i++){
+					float f = in.readFloat();
+					if(i < FEATURES){
+						features[i] = f;
+					}
+				}
+				photo.setFeatures(features);
+				photos.put(name, photo);
+			}
+		}finally{
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package elections.tools;
+
+import java.awt.Color;
+
+// Quantized RGB -> (H,S,V) lookup table.
+// Every channel keeps its top `bits` bits and each bucket maps to the HSV of
+// the color in the middle of the bucket. Tables are built on first use and
+// shared by the whole JVM (6 bits is 262144 entries, about 3MB).
+public class HSVTable {
+
+	public static final int MAX_BITS = 7;
+
+	private static final HSVTable[] tables = new HSVTable[MAX_BITS + 1];
+
+	public final int bits;
+	public final float[] h, s, v;
+
+	public static synchronized HSVTable get(int bits){
+		if(bits < 1 || bits > MAX_BITS){
+			throw new IllegalArgumentException("quantization bits must be between 1 and " + MAX_BITS + ": " + bits);
+		}
+		if(tables[bits] == null){
+			tables[bits] = new HSVTable(bits);
+		}
+		return tables[bits];
+	}
+
+	private HSVTable(int bits){
+		this.bits = bits;
+		int levels = 1 << bits, size = 1 << (3*bits), shift = 8 - bits, half = (1 << shift) >> 1;
+		h = new float[size];
+		s = new float[size];
+		v = new float[size];
+		float[] scratch = new float[3];
+		for(int r=0, i=0; r < levels; r++){
+			for(int g=0; g < levels; g++){
+				for(int b=0; b < levels; b++, i++){
+					Color.RGBtoHSB((r << shift) | half, (g << shift) | half, (b << shift) | half, scratch);
+					h[i] = scratch[0];
+					s[i] = scratch[1];
+					v[i] = scratch[2];
+				}
+			}
+		}
+	}
+
+	// table index of a packed rgb color.
+	public int index(int rgb){
+		int shift = 8 - bits;
+		return ((rgb >> 16 & 0xff) >> shift) << (2*bits) | ((rgb >> 8 & 0xff) >> shift) << bits | (rgb & 0xff) >> shift;
+	}
+
+	public int size(){
+		return h.length;
+	}
+
+}
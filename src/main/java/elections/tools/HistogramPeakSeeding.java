@@ -0,0 +1,95 @@
+package elections.tools;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+// Seeds with the peaks of a coarse rgb histogram.
+//
+// Pixels are binned on their top bits per channel and the fullest bins become
+// centroids (the mean color of the pixels in them), skipping bins right next
+// to a peak already taken (or to the anchor's bin) so two seeds don't land on
+// the same color. Doesn't use the Random at all: the seeds only depend on the
+// image.
+public class HistogramPeakSeeding implements SeedingStrategy {
+
+	private final int bits;
+
+	public HistogramPeakSeeding(int bits){
+		this.bits = bits;
+	}
+
+	public int[] seeds(IntBuffer rgb, int width, int height, int k, int anchor, Random random){
+		int side = 1 << bits, shift = 8 - bits;
+		int[] counts = new int[side*side*side];
+		long[] sums = new long[3*counts.length];
+		for(int i=0, n=rgb.limit(); i < n; i++){
+			int p = rgb.get(i);
+			int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+			int bin = ((r >> shift)*side + (g >> shift))*side + (b >> shift);
+			counts[bin]++;
+			sums[3*bin] += r;
+			sums[3*bin+1] += g;
+			sums[3*bin+2] += b;
+		}
+
+		int[] seeds = new int[k];
+		int[] peaks = new int[k];
+		seeds[0] = rgb.get(anchor);
+		int a = seeds[0];
+		peaks[0] = ((((a >> 16) & 0xff) >> shift)*side + (((a >> 8) & 0xff) >> shift))*side + ((a & 0xff) >> shift);
+
+		boolean[] taken = new boolean[counts.length];
+		taken[peaks[0]] = true;
+		for(int c=1; c < k; c++){
+			int best = peak(counts, taken, peaks, c, side, true);
+			if(best < 0){
+				// fewer separated peaks than clusters, take the next fullest bin.
+				best = peak(counts, taken, peaks, c, side, false);
+			}
+			if(best < 0){
+				// fewer colors than clusters.
+				seeds[c] = seeds[c-1];
+				peaks[c] = peaks[c-1];
+				continue;
+			}
+			taken[best] = true;
+			peaks[c] = best;
+			seeds[c] = KMeansEngine.avg(sums[3*best], sums[3*best+1], sums[3*best+2], counts[best]);
+		}
+		return seeds;
+	}
+
+	// the fullest bin that isn't taken (and, if separated, not next to any of
+	// the first n peaks); -1 if there is none.
+	static int peak(int[] counts, boolean[] taken, int[] peaks, int n, int side, boolean separated){
+		int best = -1;
+		for(int bin=0; bin < counts.length; bin++){
+			if(taken[bin] || counts[bin] == 0 || (best >= 0 && counts[bin] <= counts[best])){
+				continue;
+			}
+			if(separated && near(bin, peaks, n, side)){
+				continue;
+			}
+			best = bin;
+		}
+		return best;
+	}
+
+	// true if bin is within one step on every channel of one of the first n peaks.
+	static boolean near(int bin, int[] peaks, int n, int side){
+		int r = bin / (side*side), g = (bin / side) % side, b = bin % side;
+		for(int i=0; i < n; i++){
+			int p = peaks[i];
+			int pr = p / (side*side), pg = (p / side) % side, pb = p % side;
+			if(Math.abs(r - pr) <= 1 && Math.abs(g - pg) <= 1 && Math.abs(b - pb) <= 1){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String toString(){
+		return "histogram";
+	}
+
+}
@@ -0,0 +1,150 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A decoded image outside the Java heap.
+//
+// The pixels are packed 0xRRGGBB ints, row-major like Rasters, in a direct
+// buffer or a memory-mapped raster file. A mapped image costs no heap and is
+// paged in by the OS as the segmentation reads it, so a decoded corpus can be
+// reused across runs without decoding the JPEGs again and many images can be
+// in flight without growing the heap or the GC pauses of the web app.
+// SegmentationSession and FeatureExtractor work on it directly.
+//
+// Raster files are a 16 byte header (MAGIC, VERSION, width, height) followed
+// by width*height little-endian ints.
+public class ImageBuffer {
+
+	static final int MAGIC = 0x52474249;	// "RGBI"
+	static final int VERSION = 1;
+	static final int HEADER = 16;
+
+	private final int width, height;
+	private final IntBuffer pixels;
+
+	ImageBuffer(int width, int height, IntBuffer pixels){
+		if(pixels.remaining() != width*height){
+			throw new IllegalArgumentException(pixels.remaining() + " pixels for a " + width + "x" + height + " image");
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels.slice();
+	}
+
+	// an uninitialized direct buffer.
+	public static ImageBuffer allocate(int width, int height){
+		return new ImageBuffer(width, height, direct(width*height).asIntBuffer());
+	}
+
+	// a direct copy of img.
+	public static ImageBuffer of(BufferedImage img){
+		ImageBuffer image = allocate(img.getWidth(), img.getHeight());
+		image.pixels.put(Rasters.data(Rasters.toIntRGB(img)));
+		image.pixels.clear();
+		return image;
+	}
+
+	// the pixels of img on the heap, not copied.
+	public static ImageBuffer wrap(BufferedImage img){
+		return new ImageBuffer(img.getWidth(), img.getHeight(), IntBuffer.wrap(Rasters.data(Rasters.toIntRGB(img))));
+	}
+
+	// maps a raster file written by save(), read only.
+	public static ImageBuffer map(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if(channel.size() < HEADER || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION){
+				throw new IOException("not a raster file: " + file);
+			}
+			int width = mapped.getInt(8), height = mapped.getInt(12);
+			if(channel.size() != HEADER + 4L*width*height){
+				throw new IOException("truncated raster file: " + file);
+			}
+			mapped.position(HEADER);
+			return new ImageBuffer(width, height, mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+		} finally {
+			// the mapping stays valid after the channel is closed.
+			raf.close();
+		}
+	}
+
+	// writes the raster file; written to a temp file and renamed, so a
+	// concurrent map() never sees half of it.
+	public void save(File file) throws IOException{
+		File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+			header.flip();
+			channel.truncate(0);
+			channel.write(header);
+			ByteBuffer data = ByteBuffer.allocate(64*1024).order(ByteOrder.LITTLE_ENDIAN);
+			IntBuffer ints = data.asIntBuffer();
+			IntBuffer source = getPixels();
+			while(source.hasRemaining()){
+				int n = Math.min(ints.capacity(), source.remaining());
+				ints.clear();
+				for(int i=0; i < n; i++){
+					ints.put(source.get());
+				}
+				data.clear();
+				data.limit(4*n);
+				while(data.hasRemaining()){
+					channel.write(data);
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		if(!tmp.renameTo(file)){
+			file.delete();
+			if(!tmp.renameTo(file)){
+				tmp.delete();
+				throw new IOException("can't move " + tmp + " to " + file);
+			}
+		}
+	}
+
+	static ByteBuffer direct(int ints){
+		return ByteBuffer.allocateDirect(4*ints).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	// the pixels, read only, positioned at the first one.
+	public IntBuffer getPixels(){
+		return pixels.asReadOnlyBuffer();
+	}
+
+	// pixel y*width + x.
+	public int get(int i){
+		return pixels.get(i);
+	}
+
+	// a heap TYPE_INT_RGB copy.
+	public BufferedImage toImage(){
+		BufferedImage img = Rasters.create(width, height);
+		getPixels().get(Rasters.data(img));
+		return img;
+	}
+
+}
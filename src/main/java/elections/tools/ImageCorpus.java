@@ -0,0 +1,321 @@
+package elections.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import elections.model.Photo;
+
+// A pre-decoded image collection in one file, written by CorpusBuilder.
+//
+//   header  int MAGIC, int VERSION, int count (-1 until the writer is closed),
+//           int 0, long index offset, long 0
+//   records per image, 8 byte aligned: width*height little-endian 0xRRGGBB
+//           ints, then (optionally) width*height label bytes
+//   index   per image: utf name, boolean positive, int width, int height,
+//           long pixels offset, long labels offset (-1 for none),
+//           boolean has features, then FeatureFile.FEATURES floats if so
+//
+// Records sit in the file in index order, so records() read in order is a
+// sequential scan and any contiguous run of it can be scanned by its own
+// thread. Pixels are memory-mapped straight into ImageBuffers: reading a
+// record costs no ImageIO and no heap.
+public class ImageCorpus implements Closeable {
+
+	static final int MAGIC = 0x43525053;	// "CRPS"
+	static final int VERSION = 1;
+	static final int HEADER = 32;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final List<Record> records;
+
+	public ImageCorpus(File file) throws IOException{
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			if(header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION){
+				throw new IOException("not an image corpus: " + file);
+			}
+			int count = header.getInt();
+			header.getInt();
+			long index = header.getLong();
+			if(count < 0){
+				throw new IOException("incomplete image corpus: " + file);
+			}
+
+			channel.position(index);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64*1024));
+			List<Record> records = new ArrayList<Record>(count);
+			for(int i=0; i < count; i++){
+				records.add(new Record(i, in));
+			}
+			this.records = Collections.unmodifiableList(records);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	// every record in file order.
+	public List<Record> records(){
+		return records;
+	}
+
+	public int size(){
+		return records.size();
+	}
+
+	public Record get(int i){
+		return records.get(i);
+	}
+
+	// the stored features by name, for the records that have them (see SvmTrainer).
+	public Map<String, Photo> photos(){
+		Map<String, Photo> photos = new LinkedHashMap<String, Photo>();
+		for(Record record : records){
+			if(record.features != null){
+				photos.put(record.name, record.getPhoto());
+			}
+		}
+		return photos;
+	}
+
+	// mapped records stay readable after this.
+	public void close() throws IOException{
+		raf.close();
+	}
+
+	public static boolean isCorpus(File file) throws IOException{
+		if(file.length() < HEADER){
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	// one image of the corpus.
+	public class Record {
+		private final int index;
+		private final String name;
+		private final boolean positive;
+		private final int width, height;
+		private final long pixels, labels;
+		private final float[] features;
+
+		Record(int index, DataInputStream in) throws IOException{
+			this.index = index;
+			this.name = in.readUTF();
+			this.positive = in.readBoolean();
+			this.width = in.readInt();
+			this.height = in.readInt();
+			this.pixels = in.readLong();
+			this.labels = in.readLong();
+			if(in.readBoolean()){
+				features = new float[in.readInt()];
+				for(int f=0; f < features.length; f++){
+					features[f] = in.readFloat();
+				}
+			}else{
+				features = null;
+			}
+		}
+
+		public int getIndex(){
+			return index;
+		}
+
+		// path relative to the directory the corpus was built from.
+		public String getName(){
+			return name;
+		}
+
+		public boolean isPositive(){
+			return positive;
+		}
+
+		public int getWidth(){
+			return width;
+		}
+
+		public int getHeight(){
+			return height;
+		}
+
+		// the pixels, mapped from the file.
+		public ImageBuffer getImage() throws IOException{
+			IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, pixels, 4L*width*height)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			return new ImageBuffer(width, height, ints);
+		}
+
+		public boolean hasLabels(){
+			return labels >= 0;
+		}
+
+		// the label map of FeatureExtractor's segmentation; null if it wasn't stored.
+		public byte[] getLabels() throws IOException{
+			if(labels < 0){
+				return null;
+			}
+			byte[] map = new byte[width*height];
+			channel.map(FileChannel.MapMode.READ_ONLY, labels, map.length).get(map);
+			return map;
+		}
+
+		// the stored features; null if they weren't.
+		public Photo getPhoto(){
+			if(features == null){
+				return null;
+			}
+			double[] values = new double[FeatureFile.FEATURES];
+			for(int f=0; f < Math.min(values.length, features.length); f++){
+				values[f] = features[f];
+			}
+			Photo photo = new Photo();
+			photo.setPositive(positive);
+			photo.setFeatures(values);
+			return photo;
+		}
+
+		public String toString(){
+			return name + " " + width + "x" + height + " in " + file;
+		}
+	}
+
+	// Appends records to a new corpus file. Safe to call from several threads;
+	// the file is only readable once close() has written the index.
+	public static class Writer implements Closeable {
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		// the index is kept in memory until close().
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(index));
+		private final ByteBuffer chunk = ByteBuffer.allocate(256*1024).order(ByteOrder.LITTLE_ENDIAN);
+		private final IntBuffer ints = chunk.asIntBuffer();
+		private long end = HEADER;
+		private int count;
+
+		public Writer(File file) throws IOException{
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			channel.truncate(0);
+			header(-1, 0);
+		}
+
+		// labels and photo may be null.
+		public synchronized void write(String name, boolean positive, ImageBuffer image, byte[] labels, Photo photo) throws IOException{
+			int width = image.getWidth(), height = image.getHeight();
+			long pixelsAt = align(end);
+			channel.position(pixelsAt);
+			IntBuffer source = image.getPixels();
+			while(source.hasRemaining()){
+				int n = Math.min(ints.capacity(), source.remaining());
+				ints.clear();
+				for(int i=0; i < n; i++){
+					ints.put(source.get());
+				}
+				chunk.clear();
+				chunk.limit(4*n);
+				flush();
+			}
+			end = pixelsAt + 4L*width*height;
+
+			long labelsAt = -1;
+			if(labels != null){
+				if(labels.length != width*height){
+					throw new IllegalArgumentException(labels.length + " labels for " + width + "x" + height + " pixels");
+				}
+				labelsAt = end;
+				for(int at=0; at < labels.length; at += chunk.capacity()){
+					chunk.clear();
+					chunk.put(labels, at, Math.min(chunk.capacity(), labels.length - at));
+					chunk.flip();
+					flush();
+				}
+				end = labelsAt + labels.length;
+			}
+
+			out.writeUTF(name);
+			out.writeBoolean(positive);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeLong(pixelsAt);
+			out.writeLong(labelsAt);
+			out.writeBoolean(photo != null);
+			if(photo != null){
+				double[] features = photo.getFeatures();
+				out.writeInt(features.length);
+				for(double f : features){
+					out.writeFloat((float) f);
+				}
+			}
+			count++;
+		}
+
+		public synchronized int getWritten(){
+			return count;
+		}
+
+		public synchronized void close() throws IOException{
+			try {
+				long at = align(end);
+				out.flush();
+				channel.position(at);
+				ByteBuffer bytes = ByteBuffer.wrap(index.toByteArray());
+				while(bytes.hasRemaining()){
+					channel.write(bytes);
+				}
+				header(count, at);
+			} finally {
+				raf.close();
+			}
+		}
+
+		void flush() throws IOException{
+			while(chunk.hasRemaining()){
+				channel.write(chunk);
+			}
+		}
+
+		void header(int count, long index) throws IOException{
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putLong(index).putLong(0);
+			header.flip();
+			while(header.hasRemaining()){
+				channel.write(header, header.position());
+			}
+		}
+
+		static long align(long at){
+			return (at + 7) & ~7L;
+		}
+	}
+
+}
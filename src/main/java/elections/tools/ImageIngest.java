@@ -0,0 +1,273 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import com.yammer.metrics.core.TimerContext;
+
+// Bounded memory decoding of uploads.
+//
+// The image is decoded straight from its stream (or the spooled upload file)
+// with source subsampling, so a 20 MP photo comes out at about workingPixels
+// and the full resolution raster never exists. Per request the encoded bytes
+// and the pixel count in the image header are capped, and across the server
+// the decoded pixels held by requests are capped by a semaphore: an upload
+// waits up to waitMillis for room and is turned away after that.
+//
+// Every Ingested holds its share of the server budget until it is closed.
+public class ImageIngest {
+
+	// the semaphore counts blocks of this many pixels.
+	static final int BLOCK = 1024;
+
+	private final long maxBytes, maxPixels;
+	private final int workingPixels;
+	private final long waitMillis;
+	private final Semaphore inFlight;
+	private final int inFlightBlocks;
+	private final AtomicLong tooLarge = new AtomicLong(), busy = new AtomicLong();
+
+	public ImageIngest(long maxBytes, long maxPixels, int workingPixels, long inFlightPixels, long waitMillis){
+		this.maxBytes = maxBytes;
+		this.maxPixels = maxPixels;
+		this.workingPixels = workingPixels;
+		this.waitMillis = waitMillis;
+		this.inFlightBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, inFlightPixels / BLOCK));
+		this.inFlight = new Semaphore(inFlightBlocks, true);
+	}
+
+	// a spooled upload or a file on disk; read with random access, no copy.
+	public Ingested read(File file) throws IOException{
+		if(file.length() > maxBytes){
+			tooLarge.incrementAndGet();
+			throw new TooLargeException(file.length() + " bytes, the limit is " + maxBytes);
+		}
+		return decode(ImageIO.createImageInputStream(file));
+	}
+
+	public Ingested read(InputStream in) throws IOException{
+		return decode(ImageIO.createImageInputStream(new LimitedInputStream(in)));
+	}
+
+	Ingested decode(ImageInputStream iis) throws IOException{
+		if(iis == null){
+			throw new IOException("can't open the image stream");
+		}
+		ImageReader reader = null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if(!readers.hasNext()){
+				throw new IOException("no image reader for the upload");
+			}
+			reader = readers.next();
+			reader.setInput(iis, true, true);
+
+			int width = reader.getWidth(0), height = reader.getHeight(0);
+			if((long)width*height > maxPixels){
+				tooLarge.incrementAndGet();
+				throw new TooLargeException(width + "x" + height + " pixels, the limit is " + maxPixels);
+			}
+			int step = subsampling(width, height, workingPixels);
+			long pixels = (long)((width + step - 1)/step) * ((height + step - 1)/step);
+
+			int blocks = (int) Math.min(inFlightBlocks, (pixels + BLOCK - 1)/BLOCK);
+			boolean acquired;
+			try {
+				acquired = inFlight.tryAcquire(blocks, waitMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted waiting for decode budget");
+			}
+			if(!acquired){
+				busy.incrementAndGet();
+				throw new BusyException("too many images in flight");
+			}
+
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				ImageTypeSpecifier intRGB = intRGB(reader);
+				if(intRGB != null){
+					param.setDestinationType(intRGB);
+				}
+				BufferedImage decoded;
+				TimerContext timer = SegmentationMetrics.DECODE.time();
+				try {
+					decoded = reader.read(0, param);
+				} finally {
+					timer.stop();
+				}
+				BufferedImage image = Rasters.toIntRGB(decoded);
+				return new Ingested(image, width, height, step, blocks);
+			} catch (IOException e) {
+				inFlight.release(blocks);
+				throw unwrap(e);
+			} catch (RuntimeException e) {
+				inFlight.release(blocks);
+				throw e;
+			}
+		} finally {
+			if(reader != null){
+				reader.dispose();
+			}
+			iis.close();
+		}
+	}
+
+	// the readers wrap errors from the stream; a blown byte budget should
+	// still come out as a TooLargeException.
+	static IOException unwrap(IOException e){
+		for(Throwable t = e; t != null; t = t.getCause()){
+			if(t instanceof TooLargeException){
+				return (TooLargeException) t;
+			}
+		}
+		return e;
+	}
+
+	// smallest step that brings width x height down to at most target pixels.
+	static int subsampling(int width, int height, int target){
+		int step = 1;
+		while((long)((width + step - 1)/step) * ((height + step - 1)/step) > target){
+			step++;
+		}
+		return step;
+	}
+
+	// decode straight into TYPE_INT_RGB when the reader can.
+	static ImageTypeSpecifier intRGB(ImageReader reader) throws IOException{
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		while(types.hasNext()){
+			ImageTypeSpecifier type = types.next();
+			if(type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB){
+				return type;
+			}
+		}
+		return null;
+	}
+
+	// decoded pixels held right now.
+	public long getInFlightPixels(){
+		return (long)(inFlightBlocks - inFlight.availablePermits()) * BLOCK;
+	}
+
+	public long getTooLarge(){
+		return tooLarge.get();
+	}
+
+	public long getBusy(){
+		return busy.get();
+	}
+
+	// a decoded upload; close it once the image isn't needed any more.
+	public class Ingested implements Closeable {
+		private final BufferedImage image;
+		private final int sourceWidth, sourceHeight, subsampling;
+		private int blocks;
+
+		Ingested(BufferedImage image, int sourceWidth, int sourceHeight, int subsampling, int blocks){
+			this.image = image;
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+			this.subsampling = subsampling;
+			this.blocks = blocks;
+		}
+
+		// TYPE_INT_RGB at the working resolution.
+		public BufferedImage getImage(){
+			return image;
+		}
+
+		public int getSourceWidth(){
+			return sourceWidth;
+		}
+
+		public int getSourceHeight(){
+			return sourceHeight;
+		}
+
+		// every subsampling-th pixel of every subsampling-th row was decoded.
+		public int getSubsampling(){
+			return subsampling;
+		}
+
+		public synchronized void close(){
+			inFlight.release(blocks);
+			blocks = 0;
+		}
+	}
+
+	// the upload is over the byte or pixel budget.
+	public static class TooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TooLargeException(String message){
+			super(message);
+		}
+	}
+
+	// the server wide pixel budget stayed full for waitMillis.
+	public static class BusyException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		BusyException(String message){
+			super(message);
+		}
+	}
+
+	// fails the read once more than maxBytes came through.
+	class LimitedInputStream extends FilterInputStream {
+		private long count;
+
+		LimitedInputStream(InputStream in){
+			super(in);
+		}
+
+		public int read() throws IOException{
+			int b = super.read();
+			if(b >= 0){
+				count(1);
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			int n = super.read(b, off, len);
+			if(n > 0){
+				count(n);
+			}
+			return n;
+		}
+
+		public long skip(long n) throws IOException{
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		private void count(long n) throws IOException{
+			count += n;
+			if(count > maxBytes){
+				if(count - n <= maxBytes){
+					tooLarge.incrementAndGet();
+				}
+				throw new TooLargeException("more than " + maxBytes + " bytes");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+// Histograms and per channel statistics of an image, computed in one pass.
+//
+// Every pixel adds to the 256 bin red, green, blue, hue, saturation and value
+// histograms and to the channel sums, sums of squares and maxima. When a k-means
+// foreground mask is given the same pass also counts its pixels per quadrant
+// (see Photo) and keeps a value histogram of the foreground for the binary
+// filter difference. Nothing is allocated per pixel.
+//
+// r, g and b are in 0..255, h, s and v in 0..1 (Color.RGBtoHSB).
+public class ImageStatistics {
+
+	public static final int BINS = 256;
+
+	public static final int RED = 0, GREEN = 1, BLUE = 2, HUE = 3, SATURATION = 4, VALUE = 5;
+	public static final String[] CHANNELS = { "red", "green", "blue", "hue", "saturation", "value" };
+
+	private final int width, height;
+	private final int[][] histograms = new int[CHANNELS.length][BINS];
+	private final double[] mean = new double[CHANNELS.length];
+	private final double[] max = new double[CHANNELS.length];
+	private final double[] variance = new double[CHANNELS.length];
+
+	// only filled in with a foreground mask.
+	private final boolean segmented;
+	private final int[] quadrantForeground = new int[4];
+	private final int[] quadrantPixels = new int[4];
+	private final int[] foregroundValue = new int[BINS];
+
+	public static ImageStatistics compute(int[] rgb, int width, int height){
+		return new ImageStatistics(IntBuffer.wrap(rgb), width, height, null);
+	}
+
+	// pixels set in foreground (see SegmentationSession.getForeground) count
+	// as foreground for the quadrants.
+	public static ImageStatistics compute(int[] rgb, int width, int height, BitSet foreground){
+		return new ImageStatistics(IntBuffer.wrap(rgb), width, height, foreground);
+	}
+
+	// the pixels of an ImageBuffer.
+	public static ImageStatistics compute(IntBuffer rgb, int width, int height, BitSet foreground){
+		return new ImageStatistics(rgb, width, height, foreground);
+	}
+
+	private ImageStatistics(IntBuffer rgb, int width, int height, BitSet foreground){
+		this.width = width;
+		this.height = height;
+		this.segmented = foreground != null;
+
+		int[] rh = histograms[RED], gh = histograms[GREEN], bh = histograms[BLUE];
+		int[] hh = histograms[HUE], sh = histograms[SATURATION], vh = histograms[VALUE];
+		long rSum = 0, gSum = 0, bSum = 0, rSq = 0, gSq = 0, bSq = 0;
+		double hSum = 0, sSum = 0, vSum = 0, hSq = 0, sSq = 0, vSq = 0;
+		int rMax = 0, gMax = 0, bMax = 0;
+		float hMax = 0, sMax = 0, vMax = 0;
+		float[] hsv = new float[3];
+
+		int halfX = width/2, halfY = height/2;
+		for(int y=0; y < height; y++){
+			int row = y*width;
+			int top = y < halfY ? 0 : 3;
+			for(int x=0; x < width; x++){
+				int i = row + x;
+				int p = rgb.get(i);
+				int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+				Color.RGBtoHSB(r, g, b, hsv);
+				float h = hsv[0], s = hsv[1], v = hsv[2];
+
+				rh[r]++;
+				gh[g]++;
+				bh[b]++;
+				int vBin = bin(v);
+				hh[bin(h)]++;
+				sh[bin(s)]++;
+				vh[vBin]++;
+
+				rSum += r;
+				gSum += g;
+				bSum += b;
+				rSq += r*r;
+				gSq += g*g;
+				bSq += b*b;
+				hSum += h;
+				sSum += s;
+				vSum += v;
+				hSq += h*h;
+				sSq += s*s;
+				vSq += v*v;
+				if(r > rMax) rMax = r;
+				if(g > gMax) gMax = g;
+				if(b > bMax) bMax = b;
+				if(h > hMax) hMax = h;
+				if(s > sMax) sMax = s;
+				if(v > vMax) vMax = v;
+
+				if(segmented){
+					// Q1 top left, Q2 top right, Q3 bottom right, Q4 bottom left.
+					int q = top == 0 ? (x < halfX ? 0 : 1) : (x < halfX ? 3 : 2);
+					quadrantPixels[q]++;
+					if(foreground.get(i)){
+						quadrantForeground[q]++;
+						foregroundValue[vBin]++;
+					}
+				}
+			}
+		}
+
+		double n = Math.max(1, width*height);
+		mean[RED] = rSum/n;
+		mean[GREEN] = gSum/n;
+		mean[BLUE] = bSum/n;
+		mean[HUE] = hSum/n;
+		mean[SATURATION] = sSum/n;
+		mean[VALUE] = vSum/n;
+		variance[RED] = rSq/n - mean[RED]*mean[RED];
+		variance[GREEN] = gSq/n - mean[GREEN]*mean[GREEN];
+		variance[BLUE] = bSq/n - mean[BLUE]*mean[BLUE];
+		variance[HUE] = hSq/n - mean[HUE]*mean[HUE];
+		variance[SATURATION] = sSq/n - mean[SATURATION]*mean[SATURATION];
+		variance[VALUE] = vSq/n - mean[VALUE]*mean[VALUE];
+		max[RED] = rMax;
+		max[GREEN] = gMax;
+		max[BLUE] = bMax;
+		max[HUE] = hMax;
+		max[SATURATION] = sMax;
+		max[VALUE] = vMax;
+	}
+
+	// histogram bin of a 0..1 value.
+	static int bin(float value){
+		return Math.min(BINS-1, (int)(value*BINS));
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public int getPixels(){
+		return width*height;
+	}
+
+	public int[] getHistogram(int channel){
+		return histograms[channel].clone();
+	}
+
+	public double getMean(int channel){
+		return mean[channel];
+	}
+
+	public double getMax(int channel){
+		return max[channel];
+	}
+
+	public double getVariance(int channel){
+		return variance[channel];
+	}
+
+	// mean bin over the tallest bin, the Photo *meanDivMaxHSV features.
+	public double getMeanDivMax(int channel){
+		int tallest = tallest(channel);
+		return tallest == 0 ? 0 : (double)getPixels() / BINS / tallest;
+	}
+
+	// the pixels over the tallest bin, what the histogram-stats page prints.
+	// Its loop always stopped before the last bin, so bin 255 isn't counted.
+	public double getSumDivMax(int channel){
+		int tallest = tallest(channel), sum = 0;
+		for(int b=0; b < BINS - 1; b++){
+			sum += histograms[channel][b];
+		}
+		return tallest == 0 ? 0 : (double)sum / tallest;
+	}
+
+	int tallest(int channel){
+		int tallest = 0;
+		for(int count : histograms[channel]){
+			tallest = Math.max(tallest, count);
+		}
+		return tallest;
+	}
+
+	public boolean isSegmented(){
+		return segmented;
+	}
+
+	// % of quadrant 1..4 that is foreground.
+	public int getQuadrant(int quadrant){
+		int whole = quadrantPixels[quadrant-1];
+		return whole == 0 ? 0 : (int)Math.round(100.*quadrantForeground[quadrant-1]/whole);
+	}
+
+	// fraction of the pixels where the foreground and a brightness threshold at
+	// the mean value disagree. Value is max(r,g,b)/255, so bin b holds exactly
+	// the pixels with v = b/255 and the threshold can be taken per bin.
+	public double getBinaryFilterDifference(){
+		int disagree = 0;
+		int[] vh = histograms[VALUE];
+		for(int b=0; b < BINS; b++){
+			boolean bright = b/255f > mean[VALUE];
+			int background = vh[b] - foregroundValue[b];
+			disagree += bright ? background : foregroundValue[b];
+		}
+		return (double)disagree / Math.max(1, getPixels());
+	}
+
+}
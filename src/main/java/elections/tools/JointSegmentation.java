@@ -0,0 +1,336 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+// One set of centroids for a whole set of images, e.g. every photo of one
+// candidate.
+//
+// Every image is reduced to its distinct colors and how often each occurs;
+// assigning those with their weights gives exactly the sums of assigning every
+// pixel, at a fraction of the work. Each iteration assigns all the images as
+// fork/join tasks on the ParallelAssignment pool, each into its own sums and
+// counts, and reduces them in image order, so the centroids don't depend on
+// the number of threads. The iterations stop like a SegmentationSession's.
+//
+// A fitted set labels any image of the set in a single pass (segment()), and
+// saved with save() it seeds new uploads of the candidate: see WarmStartSeeding.
+//
+//   java elections.tools.JointSegmentation [dir=src/main/resources/imgs] [prefix=obama-c-] [out=warmstart/obama.centroids] [k=5] [minChangedFraction=0.001]
+//
+// fits the jpgs in dir whose name starts with prefix (up to 100 iterations),
+// saves the centroids and prints per image the iterations a segmentation of
+// its own takes to change no more than minChangedFraction of its pixels, from
+// random seeds and from the shared centroids.
+public class JointSegmentation {
+
+	static final int MAGIC = 0x434e5452;	// "CNTR"
+	static final int VERSION = 1;
+
+	private final SegmentationOptions options;
+	private final List<Colors> images = new ArrayList<Colors>();
+	private int[] centroids;
+
+	// progress of the fit, like SegmentationSession's.
+	private int loops;
+	private long changedPixels, size;
+	private double centroidShift;
+	private boolean converged;
+
+	public JointSegmentation(SegmentationOptions options){
+		this.options = options;
+	}
+
+	// the first image also picks the initial centroids, like a segmentation of
+	// its own would (options.getSeedingStrategy(), seeded from its name).
+	public synchronized void add(String name, BufferedImage img){
+		int width = img.getWidth(), height = img.getHeight();
+		int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+		if(centroids == null){
+			centroids = options.seeds(rgb, width, height, (height/2)*width + width/2,
+					FeatureExtractor.random(name, options));
+		}
+		images.add(new Colors(rgb));
+		size += rgb.length;
+	}
+
+	// iterate over every image added so far and return the shared centroids.
+	public int[] fit(){
+		if(images.isEmpty()){
+			throw new IllegalStateException("no images to fit");
+		}
+		int k = centroids.length;
+		float[] ch = new float[k], cs = new float[k], cv = new float[k], scratch = new float[3];
+		long[] sums = new long[3*k];
+		int[] counts = new int[k];
+		int[] before = new int[k];
+		while(loops < options.getMaxIterations() && !converged){
+			KMeansEngine.hsv(centroids, ch, cs, cv, scratch);
+			final Assignment[] tasks = new Assignment[images.size()];
+			for(int i=0; i < tasks.length; i++){
+				tasks[i] = new Assignment(images.get(i), ch, cs, cv);
+			}
+			ParallelAssignment.pool().invoke(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+
+				protected void compute(){
+					invokeAll(tasks);
+				}
+			});
+
+			// reduce in image order.
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			long changed = 0;
+			for(Assignment task : tasks){
+				changed += task.changed;
+				for(int i=0; i < sums.length; i++){
+					sums[i] += task.sums[i];
+				}
+				for(int c=0; c < k; c++){
+					counts[c] += task.counts[c];
+				}
+			}
+			System.arraycopy(centroids, 0, before, 0, k);
+			KMeansEngine.update(centroids, sums, counts);
+
+			loops++;
+			changedPixels = changed;
+			centroidShift = KMeansEngine.shift(before, centroids);
+			converged = changedPixels <= options.getMinChangedFraction()*size
+					|| centroidShift <= options.getMaxCentroidShift();
+		}
+		return centroids.clone();
+	}
+
+	// one assignment pass of img with the shared centroids.
+	public SegmentationResult segment(String name, BufferedImage img){
+		SegmentationOptions single = options.copy();
+		single.setMaxIterations(1);
+		return new SegmentationSession(name, img, centroids, img.getWidth()/2, img.getHeight()/2,
+				img.getWidth()/2, img.getHeight()/2, single).run();
+	}
+
+	public int[] getCentroids(){
+		return centroids.clone();
+	}
+
+	public int getIterations(){
+		return loops;
+	}
+
+	public long getChangedPixels(){
+		return changedPixels;
+	}
+
+	public double getCentroidShift(){
+		return centroidShift;
+	}
+
+	public boolean isConverged(){
+		return converged;
+	}
+
+	public int size(){
+		return images.size();
+	}
+
+	public static void save(int[] centroids, File file) throws IOException{
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null){
+			dir.mkdirs();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(centroids.length);
+			for(int c : centroids){
+				out.writeInt(c);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	public static int[] load(File file) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION){
+				throw new IOException(file + " is not a centroids file");
+			}
+			int[] centroids = new int[in.readInt()];
+			for(int c=0; c < centroids.length; c++){
+				centroids[c] = in.readInt();
+			}
+			return centroids;
+		}finally{
+			in.close();
+		}
+	}
+
+	// the distinct colors of one image and how many pixels have each.
+	static class Colors {
+		final int[] rgb, weights;
+		final float[] h, s, v;
+		final byte[] labels;
+
+		Colors(int[] pixels){
+			int[] sorted = pixels.clone();
+			Arrays.sort(sorted);
+			int n = 0;
+			for(int i=0; i < sorted.length; i++){
+				if(i == 0 || sorted[i] != sorted[i-1]){
+					n++;
+				}
+			}
+			rgb = new int[n];
+			weights = new int[n];
+			int at = -1;
+			for(int i=0; i < sorted.length; i++){
+				if(i == 0 || sorted[i] != sorted[i-1]){
+					rgb[++at] = sorted[i];
+				}
+				weights[at]++;
+			}
+			h = new float[n];
+			s = new float[n];
+			v = new float[n];
+			KMeansEngine.hsv(rgb, h, s, v);
+			labels = new byte[n];
+			Arrays.fill(labels, (byte) -1);
+		}
+	}
+
+	// one image's share of an iteration.
+	static class Assignment extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Colors image;
+		final float[] ch, cs, cv;
+		final long[] sums;
+		final int[] counts;
+		long changed;
+
+		Assignment(Colors image, float[] ch, float[] cs, float[] cv){
+			this.image = image;
+			this.ch = ch;
+			this.cs = cs;
+			this.cv = cv;
+			this.sums = new long[3*ch.length];
+			this.counts = new int[ch.length];
+		}
+
+		protected void compute(){
+			Colors im = image;
+			for(int e=0; e < im.rgb.length; e++){
+				int c = KMeansEngine.nearest(im.h[e], im.s[e], im.v[e], ch, cs, cv);
+				int w = im.weights[e];
+				if(im.labels[e] != c){
+					im.labels[e] = (byte) c;
+					changed += w;
+				}
+				int p = im.rgb[e];
+				sums[3*c]   += (long) w*((p >> 16) & 0xff);
+				sums[3*c+1] += (long) w*((p >> 8) & 0xff);
+				sums[3*c+2] += (long) w*(p & 0xff);
+				counts[c] += w;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs");
+		final String prefix = args.length > 1 ? args[1] : "obama-c-";
+		File out = new File(args.length > 2 ? args[2] : "warmstart/obama.centroids");
+		int k = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		double minChanged = args.length > 4 ? Double.parseDouble(args[4]) : 0.001;
+
+		File[] files = dir.listFiles(new FilenameFilter(){
+			public boolean accept(File dir, String name){
+				return name.startsWith(prefix) && name.endsWith(".jpg");
+			}
+		});
+		Arrays.sort(files);
+		SegmentationOptions options = new SegmentationOptions();
+		options.setK(k);
+		options.setMaxIterations(100);
+		options.setMinChangedFraction(minChanged);
+
+		long start = System.nanoTime();
+		JointSegmentation joint = new JointSegmentation(options);
+		List<BufferedImage> imgs = new ArrayList<BufferedImage>();
+		for(File file : files){
+			BufferedImage img = Rasters.read(file);
+			imgs.add(img);
+			joint.add(file.getName(), img);
+		}
+		int[] centroids = joint.fit();
+		save(centroids, out);
+		System.out.println(joint.size()+" images, "+joint.getIterations()+" joint iterations, converged="
+				+joint.isConverged()+", "+String.format("%.1f", (System.nanoTime() - start)/1e6)+" ms -> "+out);
+
+		System.out.println("image\tsingle pass ms\trandom iterations\twarm iterations");
+		int[] random = new int[files.length], warm = new int[files.length];
+		for(int i=0; i < files.length; i++){
+			BufferedImage img = imgs.get(i);
+			String name = files[i].getName();
+			long t = System.nanoTime();
+			joint.segment(name, img);
+			double pass = (System.nanoTime() - t)/1e6;
+
+			SegmentationOptions single = new SegmentationOptions();
+			single.setK(k);
+			single.setMaxIterations(100);
+			single.setMinChangedFraction(minChanged);
+			int width = img.getWidth(), height = img.getHeight();
+			int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+			int anchor = (height/2)*width + width/2;
+			int[] seeds = single.seeds(rgb, width, height, anchor, new Random(name.hashCode()));
+			random[i] = iterations(name, img, seeds, single);
+			// seeded the way ?seeding=warm: seeds an upload, the anchor pixel in slot 0.
+			int[] warmSeeds = new WarmStartSeeding(prefix, centroids).seeds(IntBuffer.wrap(rgb), width, height, k, anchor, null);
+			warm[i] = iterations(name, img, warmSeeds, single);
+			System.out.println(name+"\t"+String.format("%.2f", pass)+"\t"+random[i]+"\t"+warm[i]);
+		}
+		// some runs cycle between a few labellings and never get there.
+		System.out.println("median iterations "+median(random)+" from random seeds, "+median(warm)
+				+" from the shared centroids; out of budget "+count(random, 100)+" and "+count(warm, 100));
+	}
+
+	static int median(int[] values){
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length/2];
+	}
+
+	static int count(int[] values, int value){
+		int n = 0;
+		for(int v : values){
+			if(v == value){
+				n++;
+			}
+		}
+		return n;
+	}
+
+	static int iterations(String name, BufferedImage img, int[] seeds, SegmentationOptions options){
+		return new SegmentationSession(name, img, seeds, img.getWidth()/2, img.getHeight()/2,
+				img.getWidth()/2, img.getHeight()/2, options).fit().getIterations();
+	}
+
+}
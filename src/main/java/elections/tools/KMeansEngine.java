@@ -0,0 +1,200 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+// Primitive k-means kernels shared by KMeansActions and CombinedKMeansActions.
+//
+// Pixels (row-major, see Rasters) and centroids are packed 0xRRGGBB ints and
+// the (H,S,V) feature vector of every pixel is computed once into three planar
+// float[] buffers, so the assignment and accumulation loops don't allocate
+// anything per pixel. The IntBuffer/FloatBuffer versions do the same over an
+// off-heap working set (see ImageBuffer).
+public class KMeansEngine {
+
+	// fill the planar (H,S,V) buffers for every pixel.
+	public static void hsv(int[] rgb, float[] h, float[] s, float[] v){
+		float[] scratch = new float[3];
+		for(int i=0; i < rgb.length; i++){
+			int p = rgb[i];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, scratch);
+			h[i] = scratch[0];
+			s[i] = scratch[1];
+			v[i] = scratch[2];
+		}
+	}
+
+	public static void hsv(IntBuffer rgb, FloatBuffer h, FloatBuffer s, FloatBuffer v){
+		float[] scratch = new float[3];
+		for(int i=0, n=rgb.limit(); i < n; i++){
+			int p = rgb.get(i);
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, scratch);
+			h.put(i, scratch[0]);
+			s.put(i, scratch[1]);
+			v.put(i, scratch[2]);
+		}
+	}
+
+	// (H,S,V) of the centroids, computed once per iteration instead of once per pixel.
+	public static void hsv(int[] centroids, float[] ch, float[] cs, float[] cv, float[] scratch){
+		for(int i=0; i < centroids.length; i++){
+			int p = centroids[i];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, scratch);
+			ch[i] = scratch[0];
+			cs[i] = scratch[1];
+			cv[i] = scratch[2];
+		}
+	}
+
+	// index of the closest centroid.
+	// The old if/else chain only picked a cluster when it was strictly closer than
+	// every other one and fell through to the last cluster otherwise, so a tie for
+	// the minimum goes to the last cluster here too. Squared distances are enough
+	// for the comparison.
+	public static int nearest(float h, float s, float v, float[] ch, float[] cs, float[] cv){
+		int k = ch.length;
+		int best = 0;
+		boolean tied = false;
+		double min = Double.MAX_VALUE;
+		for(int i=0; i < k; i++){
+			double dh = Math.abs(h - ch[i]);
+			double ds = Math.abs(s - cs[i]);
+			double dv = Math.abs(v - cv[i]);
+			double d = dh*dh + ds*ds + dv*dv;
+			if(d < min){
+				min = d;
+				best = i;
+				tied = false;
+			}else if(d == min){
+				tied = true;
+			}
+		}
+		return tied ? k-1 : best;
+	}
+
+	// assign pixels [from, to) to their closest centroid and add them to the
+	// per-cluster sums (r,g,b interleaved) and counts.
+	// returns the number of pixels whose label changed.
+	public static int assign(int[] rgb, float[] h, float[] s, float[] v, int from, int to,
+			float[] ch, float[] cs, float[] cv, byte[] labels, long[] sums, int[] counts){
+		int changed = 0;
+		for(int i=from; i < to; i++){
+			int c = nearest(h[i], s[i], v[i], ch, cs, cv);
+			if(labels[i] != c){
+				labels[i] = (byte) c;
+				changed++;
+			}
+			int p = rgb[i];
+			sums[3*c]   += (p >> 16) & 0xff;
+			sums[3*c+1] += (p >> 8) & 0xff;
+			sums[3*c+2] += p & 0xff;
+			counts[c]++;
+		}
+		return changed;
+	}
+
+	// same as above over pixels and (H,S,V) planes in (direct) buffers.
+	public static int assign(IntBuffer rgb, FloatBuffer h, FloatBuffer s, FloatBuffer v, int from, int to,
+			float[] ch, float[] cs, float[] cv, byte[] labels, long[] sums, int[] counts){
+		int changed = 0;
+		for(int i=from; i < to; i++){
+			int c = nearest(h.get(i), s.get(i), v.get(i), ch, cs, cv);
+			if(labels[i] != c){
+				labels[i] = (byte) c;
+				changed++;
+			}
+			int p = rgb.get(i);
+			sums[3*c]   += (p >> 16) & 0xff;
+			sums[3*c+1] += (p >> 8) & 0xff;
+			sums[3*c+2] += p & 0xff;
+			counts[c]++;
+		}
+		return changed;
+	}
+
+	// move every non-empty cluster to the average color of its pixels.
+	// Empty clusters keep their previous centroid.
+	public static void update(int[] centroids, long[] sums, int[] counts){
+		for(int c=0; c < centroids.length; c++){
+			if(counts[c] > 0){
+				centroids[c] = avg(sums[3*c], sums[3*c+1], sums[3*c+2], counts[c]);
+			}
+		}
+	}
+
+	// largest distance any centroid moved, measured in the (H,S,V) feature space.
+	public static double shift(int[] before, int[] after){
+		double max = 0;
+		float[] b = new float[3], a = new float[3];
+		for(int c=0; c < before.length; c++){
+			if(before[c] == after[c]){
+				continue;
+			}
+			int p = before[c];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, b);
+			p = after[c];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, a);
+			double dh = b[0] - a[0], ds = b[1] - a[1], dv = b[2] - a[2];
+			max = Math.max(max, Math.sqrt(dh*dh + ds*ds + dv*dv));
+		}
+		return max;
+	}
+
+	// return the average color, truncated like the old Color based avg().
+	public static int avg(long r, long g, long b, int num){
+		return (int)(r/num) << 16 | (int)(g/num) << 8 | (int)(b/num);
+	}
+
+	// Redraw the image with new segments: pixels in the same segment as the
+	// pixel at index center keep their color, everything else is black with a
+	// blue crosshair through (x,y).
+	public static void redraw(int[] rgb, int width, int height, byte[] labels, int foreground,
+			int x, int y, int[] out){
+		redraw(rgb, width, height, labels, foreground, x, y, out, 0, width);
+	}
+
+	// same, drawing into a larger image: pixel i of row h goes to
+	// out[offset + h*stride + i].
+	public static void redraw(int[] rgb, int width, int height, byte[] labels, int foreground,
+			int x, int y, int[] out, int offset, int stride){
+		redraw(rgb, 0, width, height, labels, foreground, x, y, out, offset, stride);
+	}
+
+	public static void redraw(IntBuffer rgb, int width, int height, byte[] labels, int foreground,
+			int x, int y, int[] out, int offset, int stride){
+		if(rgb.hasArray()){
+			redraw(rgb.array(), rgb.arrayOffset(), width, height, labels, foreground, x, y, out, offset, stride);
+			return;
+		}
+		for(int h=0, i=0; h < height; h++){
+			int o = offset + h*stride;
+			for(int w=0; w < width; w++, i++, o++){
+				out[o] = (labels[i] == foreground) ? rgb.get(i) : (w==x || h==y) ? 255 : 0;
+			}
+		}
+	}
+
+	static void redraw(int[] rgb, int from, int width, int height, byte[] labels, int foreground,
+			int x, int y, int[] out, int offset, int stride){
+		for(int h=0, i=0; h < height; h++){
+			int o = offset + h*stride;
+			for(int w=0; w < width; w++, i++, o++){
+				out[o] = (labels[i] == foreground) ? rgb[from + i] : (w==x || h==y) ? 255 : 0;
+			}
+		}
+	}
+
+	// pixels labelled foreground.
+	public static BitSet mask(byte[] labels, int foreground){
+		BitSet mask = new BitSet(labels.length);
+		for(int i=0; i < labels.length; i++){
+			if(labels[i] == foreground){
+				mask.set(i);
+			}
+		}
+		return mask;
+	}
+
+}
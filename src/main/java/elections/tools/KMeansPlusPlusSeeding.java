@@ -0,0 +1,75 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// k-means++ seeding (Arthur and Vassilvitskii): every next centroid is a pixel
+// drawn with probability proportional to its squared (H,S,V) distance to the
+// closest centroid so far, which spreads the seeds over the colors actually in
+// the image and rarely leaves a cluster empty.
+//
+// The draws run over a random sample of at most sampleSize pixels, so seeding
+// costs O(k * sampleSize) whatever the image size.
+public class KMeansPlusPlusSeeding implements SeedingStrategy {
+
+	private final int sampleSize;
+
+	public KMeansPlusPlusSeeding(int sampleSize){
+		this.sampleSize = sampleSize;
+	}
+
+	public int[] seeds(IntBuffer rgb, int width, int height, int k, int anchor, Random random){
+		int pixels = rgb.limit();
+		int n = Math.min(sampleSize, pixels);
+		int[] sample = new int[n];
+		float[] h = new float[n], s = new float[n], v = new float[n];
+		for(int i=0; i < n; i++){
+			sample[i] = n == pixels ? rgb.get(i) : rgb.get(random.nextInt(pixels));
+		}
+		KMeansEngine.hsv(sample, h, s, v);
+
+		int[] seeds = new int[k];
+		seeds[0] = rgb.get(anchor);
+		float[] hsv = new float[3];
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.MAX_VALUE);
+		for(int c=1; c < k; c++){
+			// distances to the centroid picked last.
+			int p = seeds[c-1];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, hsv);
+			double total = 0;
+			for(int i=0; i < n; i++){
+				double dh = h[i] - hsv[0], ds = s[i] - hsv[1], dv = v[i] - hsv[2];
+				double d = dh*dh + ds*ds + dv*dv;
+				if(d < nearest[i]){
+					nearest[i] = d;
+				}
+				total += nearest[i];
+			}
+
+			if(total == 0){
+				// every sampled color is already a centroid.
+				seeds[c] = sample[random.nextInt(n)];
+				continue;
+			}
+			double target = random.nextDouble()*total;
+			int pick = n-1;
+			for(int i=0; i < n; i++){
+				target -= nearest[i];
+				if(target < 0){
+					pick = i;
+					break;
+				}
+			}
+			seeds[c] = sample[pick];
+		}
+		return seeds;
+	}
+
+	public String toString(){
+		return "kmeans++";
+	}
+
+}
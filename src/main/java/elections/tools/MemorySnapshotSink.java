@@ -0,0 +1,24 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps snapshots in memory, keyed by <tag>-<name> in the order they arrived.
+public class MemorySnapshotSink implements SnapshotSink {
+
+	private final Map<String, BufferedImage> snapshots = new LinkedHashMap<String, BufferedImage>();
+
+	public synchronized void snapshot(String name, String tag, BufferedImage image){
+		snapshots.put(tag + "-" + name, image);
+	}
+
+	public synchronized Map<String, BufferedImage> getSnapshots(){
+		return new LinkedHashMap<String, BufferedImage>(snapshots);
+	}
+
+	public synchronized BufferedImage getSnapshot(String name, String tag){
+		return snapshots.get(tag + "-" + name);
+	}
+
+}
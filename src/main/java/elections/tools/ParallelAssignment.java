@@ -0,0 +1,120 @@
+package elections.tools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Fork/join version of the k-means assignment step.
+//
+// The image is split into bands of whole rows. Every band is a task with its
+// own per-cluster rgb sums and counts, and the partial sums are merged in band
+// order once all bands are done. Labels are per pixel and the sums are exact
+// long arithmetic, so the result doesn't depend on the number of threads.
+//
+// All segmentations share one pool. Its size is the server-wide limit and can
+// be set with -Delections.segmentation.threads=N (defaults to the number of
+// cores); SegmentationOptions.setParallelism caps how many bands a single
+// request is split into.
+public class ParallelAssignment {
+
+	static final String THREADS_PROPERTY = "elections.segmentation.threads";
+	static final String PARALLELISM_PROPERTY = "elections.segmentation.parallelism";
+
+	// bands smaller than this aren't worth a task.
+	static final int MIN_BAND_PIXELS = 16*1024;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(
+			Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+	public static ForkJoinPool pool(){
+		return pool;
+	}
+
+	// parallelism used when a request doesn't ask for one.
+	public static int defaultParallelism(){
+		return Integer.getInteger(PARALLELISM_PROPERTY, pool.getParallelism());
+	}
+
+	// same contract as KMeansEngine.assign over the whole image.
+	public static int assign(int[] rgb, float[] h, float[] s, float[] v, int width, int height,
+			float[] ch, float[] cs, float[] cv, byte[] labels, long[] sums, int[] counts, int parallelism){
+		return assign(rgb, h, s, v, width, height, ch, cs, cv, labels, sums, counts, parallelism, null);
+	}
+
+	// with bounds, every band assigns through them and sums and counts only
+	// get the changes (see BoundedAssignment.totals).
+	public static int assign(int[] rgb, float[] h, float[] s, float[] v, int width, int height,
+			float[] ch, float[] cs, float[] cv, byte[] labels, long[] sums, int[] counts, int parallelism,
+			BoundedAssignment bounds){
+		int k = counts.length;
+		int bands = Math.max(1, Math.min(parallelism, rgb.length / MIN_BAND_PIXELS));
+		if(bands == 1){
+			return bounds != null
+					? bounds.assign(rgb, h, s, v, 0, rgb.length, ch, cs, cv, labels, sums, counts)
+					: KMeansEngine.assign(rgb, h, s, v, 0, rgb.length, ch, cs, cv, labels, sums, counts);
+		}
+
+		final Band[] tasks = new Band[bands];
+		for(int b=0; b < bands; b++){
+			int fromRow = (int)((long)height*b/bands);
+			int toRow = (int)((long)height*(b+1)/bands);
+			tasks[b] = new Band(rgb, h, s, v, fromRow*width, toRow*width, ch, cs, cv, labels, k, bounds);
+		}
+		pool.invoke(new RecursiveAction(){
+			protected void compute(){
+				invokeAll(tasks);
+			}
+		});
+
+		// merge the partial sums in band order.
+		int changed = 0;
+		for(Band band : tasks){
+			changed += band.changed;
+			for(int i=0; i < sums.length; i++){
+				sums[i] += band.sums[i];
+			}
+			for(int c=0; c < k; c++){
+				counts[c] += band.counts[c];
+			}
+		}
+		return changed;
+	}
+
+	static class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final int[] rgb;
+		final float[] h, s, v, ch, cs, cv;
+		final int from, to;
+		final byte[] labels;
+		final long[] sums;
+		final int[] counts;
+		final BoundedAssignment bounds;
+		int changed;
+
+		Band(int[] rgb, float[] h, float[] s, float[] v, int from, int to,
+				float[] ch, float[] cs, float[] cv, byte[] labels, int k, BoundedAssignment bounds){
+			this.rgb = rgb;
+			this.h = h;
+			this.s = s;
+			this.v = v;
+			this.from = from;
+			this.to = to;
+			this.ch = ch;
+			this.cs = cs;
+			this.cv = cv;
+			this.labels = labels;
+			this.sums = new long[3*k];
+			this.counts = new int[k];
+			this.bounds = bounds;
+		}
+
+		protected void compute(){
+			if(bounds != null){
+				changed = bounds.assign(rgb, h, s, v, from, to, ch, cs, cv, labels, sums, counts);
+				return;
+			}
+			changed = KMeansEngine.assign(rgb, h, s, v, from, to, ch, cs, cv, labels, sums, counts);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package elections.tools;
+
+import java.nio.IntBuffer;
+
+// Image pyramid helpers for coarse-to-fine segmentation.
+public class Pyramid {
+
+	// 1/16 of the size; coarser copies of the bundled photos are a few pixels across.
+	public static final int MAX_LEVEL = 4;
+
+	// the scale factor 2^level of a level between 0 and MAX_LEVEL.
+	public static int factor(int level){
+		if(level < 0 || level > MAX_LEVEL){
+			throw new IllegalArgumentException("pyramid level must be between 0 and " + MAX_LEVEL + ": " + level);
+		}
+		return 1 << level;
+	}
+
+	// level, or 0 when a width x height image is smaller than one of its blocks.
+	public static int level(int width, int height, int level){
+		int factor = factor(level);
+		return width < factor || height < factor ? 0 : level;
+	}
+
+	// size of one dimension after scaling down by factor (partial blocks count).
+	public static int scaled(int size, int factor){
+		return (size + factor - 1) / factor;
+	}
+
+	// box filter: every factor x factor block becomes its average color.
+	// Blocks on the right and bottom edges may be smaller.
+	public static int[] downsample(int[] rgb, int width, int height, int factor){
+		return downsample(IntBuffer.wrap(rgb), width, height, factor);
+	}
+
+	public static int[] downsample(IntBuffer rgb, int width, int height, int factor){
+		if(factor < 1){
+			throw new IllegalArgumentException("factor must be positive: " + factor);
+		}
+		int sw = scaled(width, factor), sh = scaled(height, factor);
+		int[] small = new int[sw*sh];
+		for(int y=0; y < sh; y++){
+			int y0 = y*factor, y1 = Math.min(y0 + factor, height);
+			for(int x=0; x < sw; x++){
+				int x0 = x*factor, x1 = Math.min(x0 + factor, width);
+				long r = 0, g = 0, b = 0;
+				for(int yy=y0; yy < y1; yy++){
+					for(int i=yy*width + x0, end=yy*width + x1; i < end; i++){
+						int p = rgb.get(i);
+						r += (p >> 16) & 0xff;
+						g += (p >> 8) & 0xff;
+						b += p & 0xff;
+					}
+				}
+				long n = (long)(y1 - y0)*(x1 - x0);
+				small[y*sw + x] = (int)((r + n/2)/n) << 16 | (int)((g + n/2)/n) << 8 | (int)((b + n/2)/n);
+			}
+		}
+		return small;
+	}
+
+}
@@ -0,0 +1,92 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+// Quality and latency of pyramid segmentation compared to full-resolution k-means.
+// For every jpg in a directory and every pyramid level it prints the fit time,
+// the number of iterations and the fraction of pixels that end up with the same
+// label as the full-resolution run (both runs start from the same seeds), then
+// the averages per level.
+//
+//   java elections.tools.PyramidReport [dir=src/main/resources/imgs] [maxLevel=3] [runs=5]
+public class PyramidReport {
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs");
+		int maxLevel = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File[] files = images(dir);
+
+		double[] agreement = new double[maxLevel+1];
+		double[] millis = new double[maxLevel+1];
+		System.out.println("image\tsize\tlevel\tms\titerations\tagreement");
+		for(File file : files){
+			BufferedImage img = ImageIO.read(file);
+			int[] seeds = SegmentationSession.seeds(img, 5, new Random(file.getName().hashCode()));
+			byte[] reference = null;
+			for(int level=0; level <= maxLevel; level++){
+				SegmentationOptions options = new SegmentationOptions();
+				options.setParallelism(1);
+				options.setPyramidLevel(level);
+
+				SegmentationSession session = null;
+				SegmentationResult result = null;
+				long best = Long.MAX_VALUE;
+				for(int r=0; r < runs; r++){
+					long start = System.nanoTime();
+					session = new SegmentationSession(file.getName(), img, seeds,
+							img.getWidth()/2, img.getHeight()/2, img.getWidth()/2, img.getHeight()/2, options);
+					result = session.fit();
+					best = Math.min(best, System.nanoTime() - start);
+				}
+
+				byte[] labels = session.getLabels();
+				if(level == 0){
+					reference = labels;
+				}
+				double agree = agreement(reference, labels);
+				agreement[level] += agree;
+				millis[level] += best/1e6;
+				System.out.println(file.getName()+"\t"+img.getWidth()+"x"+img.getHeight()+"\t"+level+"\t"
+						+String.format("%.2f", best/1e6)+"\t"+result.getIterations()+"\t"+String.format("%.4f", agree));
+			}
+		}
+
+		System.out.println();
+		System.out.println("level\tscale\tmean ms\tspeedup\tmean agreement");
+		for(int level=0; level <= maxLevel; level++){
+			System.out.println(level+"\t1/"+(1 << level)+"\t"+String.format("%.2f", millis[level]/files.length)+"\t"
+					+String.format("%.2fx", millis[0]/millis[level])+"\t"+String.format("%.4f", agreement[level]/files.length));
+		}
+	}
+
+	// the jpgs directly in dir, sorted by name.
+	static File[] images(File dir){
+		File[] files = dir.listFiles(new FilenameFilter(){
+			public boolean accept(File dir, String name){
+				return name.endsWith(".jpg");
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+
+	// fraction of pixels with the same label.
+	static double agreement(byte[] a, byte[] b){
+		int same = 0;
+		for(int i=0; i < a.length; i++){
+			if(a[i] == b[i]){
+				same++;
+			}
+		}
+		return (double)same / a.length;
+	}
+
+}
@@ -0,0 +1,106 @@
+package elections.tools;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import com.yammer.metrics.core.TimerContext;
+
+// Image I/O for the segmentation stages.
+//
+// Whatever ImageIO decodes (3 byte BGR JPEGs, indexed PNGs, images with alpha,
+// ...) is converted once to TYPE_INT_RGB, and from there on every stage works
+// on the image's backing int[] in row-major order: index = y*width + x, value
+// 0xRRGGBB. No getRGB/setRGB and no ColorModel conversion per pixel.
+public class Rasters {
+
+	public static BufferedImage read(File file) throws IOException{
+		TimerContext timer = SegmentationMetrics.DECODE.time();
+		BufferedImage img;
+		try {
+			img = ImageIO.read(file);
+		} finally {
+			timer.stop();
+		}
+		if(img == null){
+			throw new IOException("no image reader for " + file);
+		}
+		return toIntRGB(img);
+	}
+
+	public static BufferedImage read(InputStream in) throws IOException{
+		TimerContext timer = SegmentationMetrics.DECODE.time();
+		BufferedImage img;
+		try {
+			img = ImageIO.read(in);
+		} finally {
+			timer.stop();
+		}
+		if(img == null){
+			throw new IOException("no image reader for the upload");
+		}
+		return toIntRGB(img);
+	}
+
+	// the image itself when it's already a plain TYPE_INT_RGB image, a converted copy otherwise.
+	public static BufferedImage toIntRGB(BufferedImage img){
+		if(img.getType() == BufferedImage.TYPE_INT_RGB && isPacked(img)){
+			return img;
+		}
+		TimerContext timer = SegmentationMetrics.COPY.time();
+		try {
+			BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = rgb.createGraphics();
+			g.drawImage(img, 0, 0, null);
+			g.dispose();
+			return rgb;
+		} finally {
+			timer.stop();
+		}
+	}
+
+	// the backing array of a TYPE_INT_RGB image (see toIntRGB). Writes go
+	// straight into the image.
+	public static int[] data(BufferedImage img){
+		if(img.getType() != BufferedImage.TYPE_INT_RGB || !isPacked(img)){
+			throw new IllegalArgumentException("not a packed TYPE_INT_RGB image, use toIntRGB first");
+		}
+		return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+	}
+
+	// the w x h region at (x, y) of a width wide packed image, row-major.
+	public static int[] region(int[] rgb, int width, int x, int y, int w, int h){
+		int[] region = new int[w*h];
+		for(int row=0; row < h; row++){
+			System.arraycopy(rgb, (y + row)*width + x, region, row*w, w);
+		}
+		return region;
+	}
+
+	// a new TYPE_INT_RGB image.
+	public static BufferedImage create(int width, int height){
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	// true if the raster covers its whole data buffer row by row, which isn't
+	// the case for getSubimage views.
+	static boolean isPacked(BufferedImage img){
+		WritableRaster raster = img.getRaster();
+		if(!(raster.getDataBuffer() instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)){
+			return false;
+		}
+		SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		return model.getScanlineStride() == img.getWidth()
+				&& raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& raster.getDataBuffer().getOffset() == 0
+				&& raster.getDataBuffer().getSize() == img.getWidth()*img.getHeight();
+	}
+
+}
@@ -0,0 +1,274 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Summed-area tables of a segmented image, so the foreground and threshold
+// counts of any rectangle cost four reads instead of a scan.
+//
+// One pass over the pixels builds a table of the foreground (see
+// SegmentationSession.getForeground), of the value max(r,g,b) (for the mean
+// value of a region) and, for every extra Threshold, of the pixels above it
+// and of the foreground pixels above it. Level 0 is always the value above the
+// image's mean value, the binary filter of Photo.binaryFilterDifference; the
+// mean is only known at the end of the pass, so that level is filled from a
+// byte of value per pixel kept during it.
+//
+// getQuadrant() and getBinaryFilterDifference() are the same numbers
+// ImageStatistics gives, getGrid() and getDifferenceGrid() the same over an
+// n x n grid. Rectangles are clipped to the image.
+//
+// Each table is (width+1)*(height+1) with a zero first row and column: 4 bytes
+// a pixel for a count and 8 for the values, 20 with level 0 alone, plus the
+// byte a pixel while building.
+public class RegionTables {
+
+	// above value on one of ImageStatistics.HUE, SATURATION or VALUE (all 0..1).
+	public static class Threshold {
+		final int channel;
+		final float value;
+
+		public Threshold(int channel, float value){
+			if(channel != ImageStatistics.HUE && channel != ImageStatistics.SATURATION && channel != ImageStatistics.VALUE){
+				throw new IllegalArgumentException("no threshold on " + (channel >= 0 && channel < ImageStatistics.CHANNELS.length
+						? ImageStatistics.CHANNELS[channel] : "channel " + channel));
+			}
+			this.channel = channel;
+			this.value = value;
+		}
+
+		public int getChannel(){
+			return channel;
+		}
+
+		public float getValue(){
+			return value;
+		}
+	}
+
+	private final int width, height, stride;
+	private final int[] foreground;
+	private final long[] value;
+	// per level, the pixels above the threshold and the foreground pixels above it.
+	private final int[][] above, aboveForeground;
+	private final Threshold[] levels;
+
+	private RegionTables(int width, int height, int levels){
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		int size = stride*(height + 1);
+		this.foreground = new int[size];
+		this.value = new long[size];
+		this.above = new int[levels][size];
+		this.aboveForeground = new int[levels][size];
+		this.levels = new Threshold[levels];
+	}
+
+	public static RegionTables build(int[] rgb, int width, int height, BitSet foreground, Threshold... thresholds){
+		return build(IntBuffer.wrap(rgb), width, height, foreground, thresholds);
+	}
+
+	public static RegionTables build(IntBuffer rgb, int width, int height, BitSet foreground, Threshold... thresholds){
+		RegionTables t = new RegionTables(width, height, 1 + thresholds.length);
+		System.arraycopy(thresholds, 0, t.levels, 1, thresholds.length);
+		boolean hsv = false;
+		for(Threshold threshold : thresholds){
+			hsv |= threshold.channel != ImageStatistics.VALUE;
+		}
+		int stride = t.stride;
+		byte[] values = new byte[width*height];
+		int[] aboveRow = new int[thresholds.length], bothRow = new int[thresholds.length];
+		float[] pixel = new float[3];
+		// summed like ImageStatistics sums it, so the mean is the same double.
+		double valueSum = 0;
+		for(int y=0; y < height; y++){
+			int fg = 0;
+			long v = 0;
+			Arrays.fill(aboveRow, 0);
+			Arrays.fill(bothRow, 0);
+			for(int x=0; x < width; x++){
+				int i = y*width + x;
+				int p = rgb.get(i);
+				int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+				int max = Math.max(r, Math.max(g, b));
+				values[i] = (byte) max;
+				valueSum += max/255f;
+				boolean in = foreground.get(i);
+				if(in){
+					fg++;
+				}
+				v += max;
+				if(thresholds.length > 0){
+					if(hsv){
+						Color.RGBtoHSB(r, g, b, pixel);
+					}else{
+						pixel[2] = max/255f;
+					}
+					for(int l=0; l < thresholds.length; l++){
+						if(pixel[thresholds[l].channel - ImageStatistics.HUE] > thresholds[l].value){
+							aboveRow[l]++;
+							if(in){
+								bothRow[l]++;
+							}
+						}
+					}
+				}
+				int at = (y + 1)*stride + x + 1;
+				t.foreground[at] = t.foreground[at - stride] + fg;
+				t.value[at] = t.value[at - stride] + v;
+				for(int l=0; l < thresholds.length; l++){
+					t.above[l+1][at] = t.above[l+1][at - stride] + aboveRow[l];
+					t.aboveForeground[l+1][at] = t.aboveForeground[l+1][at - stride] + bothRow[l];
+				}
+			}
+		}
+
+		// level 0: value over the mean, i.e. max(r,g,b) from cut up.
+		double mean = valueSum/Math.max(1, width*height);
+		t.levels[0] = new Threshold(ImageStatistics.VALUE, (float) mean);
+		int cut = 256;
+		for(int b=255; b >= 0 && b/255f > mean; b--){
+			cut = b;
+		}
+		int[] above0 = t.above[0], both0 = t.aboveForeground[0];
+		for(int y=0; y < height; y++){
+			int up = 0, both = 0;
+			for(int x=0; x < width; x++){
+				int i = y*width + x;
+				if((values[i] & 0xff) >= cut){
+					up++;
+					if(foreground.get(i)){
+						both++;
+					}
+				}
+				int at = (y + 1)*stride + x + 1;
+				above0[at] = above0[at - stride] + up;
+				both0[at] = both0[at - stride] + both;
+			}
+		}
+		return t;
+	}
+
+	static long sum(int[] table, int stride, int x0, int y0, int x1, int y1){
+		return (long) table[y1*stride + x1] - table[y0*stride + x1] - table[y1*stride + x0] + table[y0*stride + x0];
+	}
+
+	static long sum(long[] table, int stride, int x0, int y0, int x1, int y1){
+		return table[y1*stride + x1] - table[y0*stride + x1] - table[y1*stride + x0] + table[y0*stride + x0];
+	}
+
+	// the rectangle clipped to the image as x0 y0 x1 y1 (exclusive).
+	int[] clip(int x, int y, int w, int h){
+		int x0 = Math.max(0, Math.min(width, x)), y0 = Math.max(0, Math.min(height, y));
+		int x1 = Math.max(x0, Math.min(width, x + w)), y1 = Math.max(y0, Math.min(height, y + h));
+		return new int[]{ x0, y0, x1, y1 };
+	}
+
+	// pixels of the rectangle inside the image.
+	public int getPixels(int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		return (c[2] - c[0])*(c[3] - c[1]);
+	}
+
+	public int getForeground(int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		return (int) sum(foreground, stride, c[0], c[1], c[2], c[3]);
+	}
+
+	// pixels above the threshold of level.
+	public int getAbove(int level, int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		return (int) sum(above[level], stride, c[0], c[1], c[2], c[3]);
+	}
+
+	public int getAboveForeground(int level, int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		return (int) sum(aboveForeground[level], stride, c[0], c[1], c[2], c[3]);
+	}
+
+	// pixels where the foreground and the threshold of level disagree:
+	// foreground under it or background above it.
+	public int getDisagreement(int level, int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		long fg = sum(foreground, stride, c[0], c[1], c[2], c[3]);
+		long up = sum(above[level], stride, c[0], c[1], c[2], c[3]);
+		long both = sum(aboveForeground[level], stride, c[0], c[1], c[2], c[3]);
+		return (int)(fg + up - 2*both);
+	}
+
+	// mean HSV value (0..1) of the rectangle, 0 if it's empty.
+	public double getMeanValue(int x, int y, int w, int h){
+		int[] c = clip(x, y, w, h);
+		int pixels = (c[2] - c[0])*(c[3] - c[1]);
+		return pixels == 0 ? 0 : sum(value, stride, c[0], c[1], c[2], c[3])/255./pixels;
+	}
+
+	// % of quadrant 1..4 that is foreground, Q1 top left then clockwise.
+	public int getQuadrant(int quadrant){
+		int halfX = width/2, halfY = height/2;
+		switch(quadrant){
+			case 1: return percent(0, 0, halfX, halfY);
+			case 2: return percent(halfX, 0, width - halfX, halfY);
+			case 3: return percent(halfX, halfY, width - halfX, height - halfY);
+			case 4: return percent(0, halfY, halfX, height - halfY);
+			default: throw new IllegalArgumentException("no quadrant " + quadrant);
+		}
+	}
+
+	// fraction of the image where the foreground and the value over its mean disagree.
+	public double getBinaryFilterDifference(){
+		return (double) getDisagreement(0, 0, 0, width, height)/Math.max(1, width*height);
+	}
+
+	// % foreground of every cell of an n x n grid, row by row. Cell edges are
+	// at i*width/n and j*height/n, so getGrid(2) is Q1, Q2, Q4, Q3.
+	public int[] getGrid(int n){
+		int[] grid = new int[n*n];
+		for(int j=0; j < n; j++){
+			for(int i=0; i < n; i++){
+				int x0 = i*width/n, x1 = (i + 1)*width/n, y0 = j*height/n, y1 = (j + 1)*height/n;
+				grid[j*n + i] = percent(x0, y0, x1 - x0, y1 - y0);
+			}
+		}
+		return grid;
+	}
+
+	// getBinaryFilterDifference() of every cell of the same grid.
+	public double[] getDifferenceGrid(int n){
+		double[] grid = new double[n*n];
+		for(int j=0; j < n; j++){
+			for(int i=0; i < n; i++){
+				int x0 = i*width/n, x1 = (i + 1)*width/n, y0 = j*height/n, y1 = (j + 1)*height/n;
+				int pixels = (x1 - x0)*(y1 - y0);
+				grid[j*n + i] = (double) getDisagreement(0, x0, y0, x1 - x0, y1 - y0)/Math.max(1, pixels);
+			}
+		}
+		return grid;
+	}
+
+	int percent(int x, int y, int w, int h){
+		int pixels = getPixels(x, y, w, h);
+		return pixels == 0 ? 0 : (int)Math.round(100.*getForeground(x, y, w, h)/pixels);
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	// 1 + the number of extra thresholds.
+	public int getLevels(){
+		return levels.length;
+	}
+
+	public Threshold getThreshold(int level){
+		return levels[level];
+	}
+
+}
@@ -0,0 +1,91 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+// Iterations to converge for every SeedingStrategy.
+// Segments every jpg in a directory runs times per strategy (seeds 0..runs-1)
+// with a large iteration budget, and prints per strategy the distribution of
+// the iterations it took to reach a stable labelling, how many runs didn't get
+// there, how many ended with an empty cluster and the mean seeding and fit
+// time.
+//
+//   java elections.tools.SeedingReport [dir=src/main/resources/imgs] [runs=10] [k=5] [maxIterations=100]
+public class SeedingReport {
+
+	static final SeedingStrategy[] STRATEGIES = {
+		SeedingStrategy.RANDOM, SeedingStrategy.KMEANS_PLUS_PLUS, SeedingStrategy.HISTOGRAM_PEAKS
+	};
+
+	public static void main(String[] args) throws Exception{
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/imgs");
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int maxIterations = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+		File[] files = PyramidReport.images(dir);
+		int total = files.length*runs;
+
+		System.out.println("strategy\tmean\tp50\tp90\tmax\tunconverged\tempty\tseed ms\tfit ms");
+		for(SeedingStrategy strategy : STRATEGIES){
+			int[] iterations = new int[total];
+			int unconverged = 0, empty = 0, at = 0;
+			long seeding = 0, fitting = 0;
+			for(File file : files){
+				BufferedImage img = Rasters.read(file);
+				int width = img.getWidth(), height = img.getHeight();
+				int[] rgb = Rasters.data(img);
+				for(int r=0; r < runs; r++){
+					SegmentationOptions options = new SegmentationOptions();
+					options.setK(k);
+					options.setMaxIterations(maxIterations);
+					options.setParallelism(1);
+					options.setSeedingStrategy(strategy);
+
+					long start = System.nanoTime();
+					int[] seeds = options.seeds(rgb, width, height, (height/2)*width + width/2, new Random(r));
+					long seeded = System.nanoTime();
+					SegmentationSession session = new SegmentationSession(file.getName(), rgb, width, height, seeds,
+							width/2, height/2, width/2, height/2, options);
+					SegmentationResult result = session.fit();
+					seeding += seeded - start;
+					fitting += System.nanoTime() - seeded;
+
+					iterations[at++] = result.getIterations();
+					if(!result.isConverged()){
+						unconverged++;
+					}
+					if(clusters(session.getLabels(), k) < k){
+						empty++;
+					}
+				}
+			}
+
+			Arrays.sort(iterations);
+			double mean = 0;
+			for(int i : iterations){
+				mean += i;
+			}
+			mean /= total;
+			System.out.println(strategy+"\t"+String.format("%.2f", mean)+"\t"+iterations[total/2]+"\t"
+					+iterations[(int)(total*0.9)]+"\t"+iterations[total-1]+"\t"+unconverged+"/"+total+"\t"+empty+"/"+total+"\t"
+					+String.format("%.3f", seeding/1e6/total)+"\t"+String.format("%.2f", fitting/1e6/total));
+		}
+	}
+
+	// number of clusters that have at least one pixel.
+	static int clusters(byte[] labels, int k){
+		boolean[] used = new boolean[k];
+		int n = 0;
+		for(int label : labels){
+			if(!used[label]){
+				used[label] = true;
+				n++;
+			}
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,42 @@
+package elections.tools;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+// Picks the initial centroids of a segmentation.
+//
+// Cluster 0 is always the pixel at anchor (the image center, or the middle of
+// the face box for CombinedKMeansActions); the strategy only chooses the other
+// k-1. Every random choice comes from the given Random, so with a seeded one
+// the seeds, and the whole segmentation, are reproducible.
+public interface SeedingStrategy {
+
+	// k-1 random pixels, drawn exactly like the old initialize().
+	SeedingStrategy RANDOM = new SeedingStrategy(){
+		public int[] seeds(IntBuffer rgb, int width, int height, int k, int anchor, Random random){
+			int[] seeds = new int[k];
+			seeds[0] = rgb.get(anchor);
+			for(int i=1; i < k; i++){
+				int x = random.nextInt(width);
+				int y = random.nextInt(height);
+				seeds[i] = rgb.get(y*width + x);
+			}
+			return seeds;
+		}
+
+		public String toString(){
+			return "random";
+		}
+	};
+
+	// k-means++ over a pixel sample.
+	SeedingStrategy KMEANS_PLUS_PLUS = new KMeansPlusPlusSeeding(4096);
+
+	// the most common colors of a coarse color histogram.
+	SeedingStrategy HISTOGRAM_PEAKS = new HistogramPeakSeeding(4);
+
+	// rgb is row-major packed 0xRRGGBB (an array wrapped with IntBuffer.wrap
+	// or an ImageBuffer), the result k packed colors.
+	int[] seeds(IntBuffer rgb, int width, int height, int k, int anchor, Random random);
+
+}
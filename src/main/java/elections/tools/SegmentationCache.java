@@ -0,0 +1,306 @@
+package elections.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Content addressed cache of segmentation results.
+//
+// The key is a SHA-1 of the decoded pixels, the seeds and every option that
+// changes the outcome (k, iterations, thresholds, pyramid, quantization, face
+// box), so the same photo under another name still hits and a re-encoded or
+// edited one doesn't. Entries keep the centroids, the label map and, once
+// FeatureExtractor has run on it, the Photo features.
+//
+// The memory tier is an LRU bounded by bytes. With a directory the entries are
+// also written there as gzipped <key>.seg files and read back after a restart.
+public class SegmentationCache {
+
+	static final int MAGIC = 0x5345474d; // "SEGM"
+	static final int VERSION = 2;
+
+	private final long maxBytes;
+	private final File dir;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes;
+	private long hits, diskHits, misses, evictions;
+
+	// dir may be null for a memory only cache.
+	public SegmentationCache(long maxBytes, File dir){
+		this.maxBytes = maxBytes;
+		this.dir = dir;
+		if(dir != null){
+			dir.mkdirs();
+		}
+	}
+
+	public Entry get(String key){
+		synchronized(this){
+			Entry entry = entries.get(key);
+			if(entry != null){
+				hits++;
+				return entry;
+			}
+		}
+		Entry entry = dir == null ? null : read(key);
+		synchronized(this){
+			if(entry == null){
+				misses++;
+				return null;
+			}
+			diskHits++;
+			insert(key, entry);
+			return entry;
+		}
+	}
+
+	public void put(String key, Entry entry){
+		synchronized(this){
+			insert(key, entry);
+		}
+		if(dir != null){
+			write(key, entry);
+		}
+	}
+
+	// attach the features to a cached segmentation.
+	public void putFeatures(String key, Entry entry, double[] features){
+		entry.features = features.clone();
+		if(dir != null){
+			write(key, entry);
+		}
+	}
+
+	private void insert(String key, Entry entry){
+		Entry old = entries.put(key, entry);
+		if(old != null){
+			bytes -= old.bytes();
+		}
+		bytes += entry.bytes();
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+		while(bytes > maxBytes && eldest.hasNext()){
+			Map.Entry<String, Entry> e = eldest.next();
+			if(e.getValue() == entry){
+				break;
+			}
+			bytes -= e.getValue().bytes();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	public synchronized long getDiskHits(){
+		return diskHits;
+	}
+
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	public synchronized long getBytes(){
+		return bytes;
+	}
+
+	public synchronized int getEntries(){
+		return entries.size();
+	}
+
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+
+	// the cache key of a segmentation of rgb starting from seeds.
+	static String key(IntBuffer rgb, int width, int height, int[] seeds, SegmentationOptions options,
+			int center, int crossX, int crossY){
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[4*1024];
+		int at = 0;
+		for(int i=0, n=rgb.limit(); i < n; i++){
+			int p = rgb.get(i);
+			buffer[at++] = (byte)(p >> 16);
+			buffer[at++] = (byte)(p >> 8);
+			buffer[at++] = (byte)p;
+			if(at > buffer.length - 3){
+				sha.update(buffer, 0, at);
+				at = 0;
+			}
+		}
+		sha.update(buffer, 0, at);
+
+		StringBuilder params = new StringBuilder();
+		params.append(width).append('x').append(height);
+		for(int seed : seeds){
+			params.append(',').append(seed);
+		}
+		params.append(';').append(options.getMaxIterations())
+				.append(';').append(options.getMinChangedFraction())
+				.append(';').append(options.getMaxCentroidShift())
+				.append(';').append(options.getPyramidLevel())
+				.append(';').append(options.getQuantizationBits())
+				.append(';').append(center).append(';').append(crossX).append(';').append(crossY);
+		try {
+			sha.update(params.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for(byte b : sha.digest()){
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	Entry read(String key){
+		File file = new File(dir, key + ".seg");
+		if(!file.isFile()){
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+			try {
+				if(in.readInt() != MAGIC || in.readInt() != VERSION){
+					return null;
+				}
+				int[] centroids = ints(in), colors = ints(in);
+				byte[] labels = bytes(in);
+				Entry entry = new Entry(centroids, colors, labels, in.readInt(), in.readInt(), in.readDouble(), in.readBoolean());
+				if(in.readBoolean()){
+					double[] features = new double[in.readInt()];
+					for(int i=0; i < features.length; i++){
+						features[i] = in.readDouble();
+					}
+					entry.features = features;
+				}
+				return entry;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println(e.toString()+" || "+file);
+			return null;
+		}
+	}
+
+	void write(String key, Entry entry){
+		File file = new File(dir, key + ".seg");
+		File tmp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				ints(out, entry.centroids);
+				ints(out, entry.colors);
+				bytes(out, entry.labels);
+				out.writeInt(entry.iterations);
+				out.writeInt(entry.changedPixels);
+				out.writeDouble(entry.centroidShift);
+				out.writeBoolean(entry.converged);
+				double[] features = entry.features;
+				out.writeBoolean(features != null);
+				if(features != null){
+					out.writeInt(features.length);
+					for(double f : features){
+						out.writeDouble(f);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(file)){
+				file.delete();
+				tmp.renameTo(file);
+			}
+		} catch (IOException e) {
+			System.err.println(e.toString()+" || "+file);
+			tmp.delete();
+		}
+	}
+
+	static int[] ints(DataInputStream in) throws IOException{
+		int[] values = new int[in.readInt()];
+		for(int i=0; i < values.length; i++){
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	static byte[] bytes(DataInputStream in) throws IOException{
+		byte[] values = new byte[in.readInt()];
+		in.readFully(values);
+		return values;
+	}
+
+	static void bytes(DataOutputStream out, byte[] values) throws IOException{
+		out.writeInt(values.length);
+		out.write(values);
+	}
+
+	static void ints(DataOutputStream out, int[] values) throws IOException{
+		out.writeInt(values.length);
+		for(int v : values){
+			out.writeInt(v);
+		}
+	}
+
+	// one cached segmentation. The arrays are never changed once cached.
+	public static class Entry {
+		final int[] centroids;
+		// the centroids the labels were assigned to, for the centroid shift.
+		final int[] colors;
+		final byte[] labels;
+		final int iterations, changedPixels;
+		final double centroidShift;
+		final boolean converged;
+		volatile double[] features;
+
+		Entry(int[] centroids, int[] colors, byte[] labels, int iterations, int changedPixels,
+				double centroidShift, boolean converged){
+			this.centroids = centroids;
+			this.colors = colors;
+			this.labels = labels;
+			this.iterations = iterations;
+			this.changedPixels = changedPixels;
+			this.centroidShift = centroidShift;
+			this.converged = converged;
+		}
+
+		public double[] getFeatures(){
+			double[] f = features;
+			return f == null ? null : f.clone();
+		}
+
+		long bytes(){
+			return 64 + 4L*(centroids.length + colors.length) + labels.length + 8*9;
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package elections.tools;
+
+// One queued segmentation and its timings (System.currentTimeMillis()).
+public class SegmentationJob {
+
+	public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+	private final String id;
+	private final String name;
+	private final long queuedAt;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	private volatile Status status = Status.QUEUED;
+	private volatile SegmentationResult result;
+	private volatile String error;
+
+	SegmentationJob(String id, String name){
+		this.id = id;
+		this.name = name;
+		this.queuedAt = System.currentTimeMillis();
+	}
+
+	void started(){
+		startedAt = System.currentTimeMillis();
+		status = Status.RUNNING;
+	}
+
+	void done(SegmentationResult result){
+		this.result = result;
+		finishedAt = System.currentTimeMillis();
+		status = Status.DONE;
+	}
+
+	void failed(Throwable t){
+		this.error = t.toString();
+		finishedAt = System.currentTimeMillis();
+		status = Status.FAILED;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	// null until the job is DONE.
+	public SegmentationResult getResult() {
+		return result;
+	}
+
+	// null unless the job FAILED.
+	public String getError() {
+		return error;
+	}
+
+	public long getQueuedAt() {
+		return queuedAt;
+	}
+
+	// time spent waiting for a worker so far.
+	public long getQueueMillis() {
+		return (startedAt > 0 ? startedAt : System.currentTimeMillis()) - queuedAt;
+	}
+
+	// time spent segmenting so far.
+	public long getRunMillis() {
+		if(startedAt == 0){
+			return 0;
+		}
+		return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+	}
+
+	public boolean isFinished() {
+		return finishedAt > 0;
+	}
+
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+}
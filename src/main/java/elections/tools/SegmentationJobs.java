@@ -0,0 +1,92 @@
+package elections.tools;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Runs segmentations on a bounded worker pool instead of the request thread.
+//
+// submit() hands back a job id right away; the job can be polled with get()
+// until it's finished. When every worker is busy and the queue is full, submit
+// throws RejectedExecutionException so the caller can push back on the client.
+// Finished jobs are forgotten after a while.
+public class SegmentationJobs {
+
+	private static final Logger log = LoggerFactory.getLogger(SegmentationJobs.class);
+
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentMap<String, SegmentationJob> jobs = new ConcurrentHashMap<String, SegmentationJob>();
+	private final long retainMillis;
+
+	public SegmentationJobs(int workers, int queueCapacity, long retainMillis){
+		this.retainMillis = retainMillis;
+		this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory(){
+					private final AtomicInteger count = new AtomicInteger();
+					public Thread newThread(Runnable r){
+						Thread t = new Thread(r, "segmentation-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	public SegmentationJob submit(String name, final Callable<SegmentationResult> work) throws RejectedExecutionException{
+		prune();
+		final SegmentationJob job = new SegmentationJob(UUID.randomUUID().toString(), name);
+		jobs.put(job.getId(), job);
+		try {
+			executor.execute(new Runnable(){
+				public void run(){
+					job.started();
+					try {
+						job.done(work.call());
+					} catch (Throwable t) {
+						SegmentationMetrics.FAILURES.inc();
+						log.error("segmentation job " + job.getId() + " (" + job.getName() + ") failed", t);
+						job.failed(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			throw e;
+		}
+		return job;
+	}
+
+	// null for unknown or expired ids.
+	public SegmentationJob get(String id){
+		return jobs.get(id);
+	}
+
+	public int getQueueDepth(){
+		return executor.getQueue().size();
+	}
+
+	public int getActive(){
+		return executor.getActiveCount();
+	}
+
+	void prune(){
+		long cutoff = System.currentTimeMillis() - retainMillis;
+		for(Iterator<SegmentationJob> it = jobs.values().iterator(); it.hasNext();){
+			SegmentationJob job = it.next();
+			if(job.isFinished() && job.getFinishedAt() < cutoff){
+				it.remove();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package elections.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+
+// Where the time goes in a segmentation.
+//
+// Everything is registered in the metrics-core default registry, which
+// publishes it over JMX (domain elections.tools, type SegmentationMetrics);
+// the controller serves the same registry as JSON on GET /metrics.
+// Timers are in milliseconds, their rates per second.
+public class SegmentationMetrics {
+
+	// image bytes to pixels (ImageIO.read or the subsampled upload decode).
+	public static final Timer DECODE = timer("decode");
+	// converting a decoded image to TYPE_INT_RGB, when it wasn't already.
+	public static final Timer COPY = timer("copy");
+	public static final Timer SEEDING = timer("seeding");
+	// one assignment + update step; pyramid runs count their coarse steps too.
+	public static final Timer ITERATION = timer("iteration");
+	public static final Timer REDRAW = timer("redraw");
+	// handing a snapshot to the sink, on the segmentation thread.
+	public static final Timer SNAPSHOT = timer("snapshot");
+	// JPEG encode and write of snapshots and job images.
+	public static final Timer ENCODE = timer("encode");
+	// FaceDetector.detect, with the windows it evaluated and the faces it found.
+	public static final Timer FACE_DETECT = timer("face-detect");
+
+	// pixels of the images segmented (not served from the cache).
+	public static final Counter PIXELS = Metrics.newCounter(SegmentationMetrics.class, "pixels");
+	public static final Counter SEGMENTATIONS = Metrics.newCounter(SegmentationMetrics.class, "segmentations");
+	public static final Counter UNCONVERGED = Metrics.newCounter(SegmentationMetrics.class, "unconverged");
+	// clusters left without a pixel at the end of a segmentation.
+	public static final Counter EMPTY_CLUSTERS = Metrics.newCounter(SegmentationMetrics.class, "empty-clusters");
+	// pixel to centroid distances computed in assignment steps, and those
+	// BoundedAssignment showed weren't needed.
+	public static final Counter DISTANCES = Metrics.newCounter(SegmentationMetrics.class, "distances");
+	public static final Counter SKIPPED_DISTANCES = Metrics.newCounter(SegmentationMetrics.class, "skipped-distances");
+	public static final Counter FACE_WINDOWS = Metrics.newCounter(SegmentationMetrics.class, "face-windows");
+	public static final Counter FACES = Metrics.newCounter(SegmentationMetrics.class, "faces");
+	// requests and jobs that ended in an exception.
+	public static final Counter FAILURES = Metrics.newCounter(SegmentationMetrics.class, "failures");
+
+	public static final Histogram ITERATIONS = Metrics.newHistogram(SegmentationMetrics.class, "iterations-to-converge", true);
+
+	static Timer timer(String name){
+		return Metrics.newTimer(SegmentationMetrics.class, name, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+	}
+
+	// a finished (not cached) segmentation. counts are the pixels per cluster.
+	static void segmented(int pixels, int iterations, boolean converged, int[] counts){
+		SEGMENTATIONS.inc();
+		PIXELS.inc(pixels);
+		ITERATIONS.update(iterations);
+		if(!converged){
+			UNCONVERGED.inc();
+		}
+		for(int count : counts){
+			if(count == 0){
+				EMPTY_CLUSTERS.inc();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+package elections.tools;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import com.yammer.metrics.core.TimerContext;
+
+// Per-request knobs for a SegmentationSession.
+//
+// The controller binds the numeric knobs straight from request parameters, so
+// the setters reject values outside the ranges below with an
+// IllegalArgumentException (a 400 for the request).
+public class SegmentationOptions {
+
+	// bounds of what a request may ask for.
+	public static final int MAX_ITERATIONS = 100;
+	public static final int MAX_PYRAMID_LEVEL = Pyramid.MAX_LEVEL;
+	public static final int MAX_PARALLELISM = 64;
+
+	// number of clusters, 2..SegmentationSession.MAX_CLUSTERS.
+	private int k = 5;
+
+	// iteration budget, 1..MAX_ITERATIONS; the run stops earlier once it has converged.
+	private int maxIterations = 20;
+
+	// converged once no more than this fraction of the pixels changed cluster
+	// in an iteration. With 0 only a fully stable labelling stops the run,
+	// which gives exactly the same result as running out the budget.
+	private double minChangedFraction = 0;
+
+	// ... or once no centroid moved further than this, in (H,S,V) units.
+	private double maxCentroidShift = 0;
+
+	// fit the centroids on a 1/2^pyramidLevel scale copy and only do the final
+	// assignment at full resolution (0 = off). The server default can be set
+	// with -Delections.segmentation.pyramid=N, 0..MAX_PYRAMID_LEVEL.
+	private int pyramidLevel = check("pyramidLevel", Integer.getInteger("elections.segmentation.pyramid", 0), 0, MAX_PYRAMID_LEVEL);
+
+	// skip the distances that can't change a pixel's cluster with Hamerly's
+	// bounds (see BoundedAssignment); same labels, 8 more bytes per pixel.
+	// Quantized and off-heap sessions assign without them. The server default
+	// can be set with -Delections.segmentation.bounds=false.
+	private boolean bounded = Boolean.parseBoolean(System.getProperty("elections.segmentation.bounds", "true"));
+
+	// bits per rgb channel for the HSVTable/ColorPalette assignment; 0 keeps
+	// the exact per pixel (H,S,V) path.
+	private int quantizationBits;
+
+	// where intermediate images go; nothing is drawn for them by default.
+	private SnapshotSink snapshotSink = SnapshotSink.NONE;
+
+	// with a sink, snapshot every this many iterations (0 = final image only),
+	// at most MAX_ITERATIONS.
+	private int snapshotInterval = 5;
+
+	// number of fork/join workers one segmentation may use; 0 means the server
+	// default (ParallelAssignment.defaultParallelism()), 1 runs on the calling
+	// thread. At most MAX_PARALLELISM.
+	private int parallelism;
+
+	// seed for the random centroids; null seeds from the clock, so two runs
+	// on the same image can differ (and won't share a cache entry).
+	private Long seed;
+
+	// how the initial centroids are picked, see SeedingStrategy. Requests
+	// choose with ?seeding=random|kmeans++|histogram|warm:<candidate>.
+	private SeedingStrategy seeding = SeedingStrategy.RANDOM;
+
+	// where finished segmentations are looked up and kept; null for none.
+	private SegmentationCache cache;
+
+	// with a face box, only the box grown by this fraction of its size on
+	// every side is segmented (see CombinedKMeansActions.SegmentRegion).
+	private double margin = 0.5;
+
+	// fills Photo.faceDetected and finds the face box of the combined
+	// segmentation when none is given; -Delections.face.cascade=FILE by
+	// default, null (no detection) without it.
+	private FaceDetector faceDetector = FaceDetector.configured();
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = check("parallelism", parallelism, 0, MAX_PARALLELISM);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public void setK(int k) {
+		this.k = check("k", k, 2, SegmentationSession.MAX_CLUSTERS);
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = check("maxIterations", maxIterations, 1, MAX_ITERATIONS);
+	}
+
+	public double getMinChangedFraction() {
+		return minChangedFraction;
+	}
+
+	public void setMinChangedFraction(double minChangedFraction) {
+		this.minChangedFraction = check("minChangedFraction", minChangedFraction, 0, 1);
+	}
+
+	public double getMaxCentroidShift() {
+		return maxCentroidShift;
+	}
+
+	public void setMaxCentroidShift(double maxCentroidShift) {
+		this.maxCentroidShift = check("maxCentroidShift", maxCentroidShift, 0, Double.MAX_VALUE);
+	}
+
+	public SnapshotSink getSnapshotSink() {
+		return snapshotSink;
+	}
+
+	public void setSnapshotSink(SnapshotSink snapshotSink) {
+		this.snapshotSink = snapshotSink;
+	}
+
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = check("snapshotInterval", snapshotInterval, 0, MAX_ITERATIONS);
+	}
+
+	public int getPyramidLevel() {
+		return pyramidLevel;
+	}
+
+	public void setPyramidLevel(int pyramidLevel) {
+		this.pyramidLevel = check("pyramidLevel", pyramidLevel, 0, MAX_PYRAMID_LEVEL);
+	}
+
+	public boolean isBounded() {
+		return bounded;
+	}
+
+	public void setBounded(boolean bounded) {
+		this.bounded = bounded;
+	}
+
+	public int getQuantizationBits() {
+		return quantizationBits;
+	}
+
+	public void setQuantizationBits(int quantizationBits) {
+		this.quantizationBits = check("quantizationBits", quantizationBits, 0, HSVTable.MAX_BITS);
+	}
+
+	public Long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	public String getSeeding() {
+		return seeding.toString();
+	}
+
+	public void setSeeding(String name) {
+		if("random".equals(name)){
+			seeding = SeedingStrategy.RANDOM;
+		}else if("kmeans++".equals(name)){
+			seeding = SeedingStrategy.KMEANS_PLUS_PLUS;
+		}else if("histogram".equals(name)){
+			seeding = SeedingStrategy.HISTOGRAM_PEAKS;
+		}else if(name != null && name.startsWith("warm:")){
+			seeding = WarmStartSeeding.forCandidate(name.substring("warm:".length()));
+		}else{
+			throw new IllegalArgumentException("unknown seeding " + name);
+		}
+	}
+
+	public SeedingStrategy getSeedingStrategy() {
+		return seeding;
+	}
+
+	public void setSeedingStrategy(SeedingStrategy seeding) {
+		this.seeding = seeding;
+	}
+
+	public SegmentationCache getCache() {
+		return cache;
+	}
+
+	public void setCache(SegmentationCache cache) {
+		this.cache = cache;
+	}
+
+	public double getMargin() {
+		return margin;
+	}
+
+	public void setMargin(double margin) {
+		this.margin = check("margin", margin, 0, Double.MAX_VALUE);
+	}
+
+	public FaceDetector getFaceDetector() {
+		return faceDetector;
+	}
+
+	public void setFaceDetector(FaceDetector faceDetector) {
+		this.faceDetector = faceDetector;
+	}
+
+	static int check(String name, int value, int min, int max) {
+		if(value < min || value > max){
+			throw new IllegalArgumentException(name + " must be between " + min + " and " + max + ": " + value);
+		}
+		return value;
+	}
+
+	// NaN is out of range too.
+	static double check(String name, double value, double min, double max) {
+		if(!(value >= min && value <= max)){
+			throw new IllegalArgumentException(name + " must be between " + min + " and " + max + ": " + value);
+		}
+		return value;
+	}
+
+	// the random source for the initial centroids.
+	Random random() {
+		return seed == null ? new Random() : new Random(seed);
+	}
+
+	// the initial centroids for rgb, cluster 0 being the pixel at anchor.
+	int[] seeds(int[] rgb, int width, int height, int anchor, Random random) {
+		return seeds(IntBuffer.wrap(rgb), width, height, anchor, random);
+	}
+
+	int[] seeds(IntBuffer rgb, int width, int height, int anchor, Random random) {
+		TimerContext timer = SegmentationMetrics.SEEDING.time();
+		try {
+			return seeding.seeds(rgb, width, height, k, anchor, random);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	// the parallelism actually used, with 0 resolved to the server default.
+	int effectiveParallelism() {
+		return parallelism > 0 ? parallelism : ParallelAssignment.defaultParallelism();
+	}
+
+	SegmentationOptions copy() {
+		SegmentationOptions copy = new SegmentationOptions();
+		copy.k = k;
+		copy.maxIterations = maxIterations;
+		copy.minChangedFraction = minChangedFraction;
+		copy.maxCentroidShift = maxCentroidShift;
+		copy.pyramidLevel = pyramidLevel;
+		copy.bounded = bounded;
+		copy.quantizationBits = quantizationBits;
+		copy.snapshotSink = snapshotSink;
+		copy.snapshotInterval = snapshotInterval;
+		copy.parallelism = parallelism;
+		copy.seed = seed;
+		copy.seeding = seeding;
+		copy.cache = cache;
+		copy.margin = margin;
+		copy.faceDetector = faceDetector;
+		return copy;
+	}
+
+}
@@ -0,0 +1,105 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+// What a SegmentationSession reports back after a run.
+public class SegmentationResult {
+
+	private final int[] centroids;
+	private final int iterations;
+	private final int changedPixels;
+	private final double centroidShift;
+	private final boolean converged;
+	private final byte[] labels;
+	private final int foreground;
+	private final List<String> snapshots;
+	private BufferedImage image;
+	private Renderer renderer;
+
+	// draws the image of a result on demand.
+	interface Renderer {
+		BufferedImage render();
+	}
+
+	SegmentationResult(int[] centroids, int iterations, int changedPixels, double centroidShift, boolean converged,
+			BufferedImage image, byte[] labels, int foreground, List<String> snapshots, Renderer renderer){
+		this.centroids = centroids;
+		this.iterations = iterations;
+		this.changedPixels = changedPixels;
+		this.centroidShift = centroidShift;
+		this.converged = converged;
+		this.image = image;
+		this.labels = labels;
+		this.foreground = foreground;
+		this.snapshots = Collections.unmodifiableList(snapshots);
+		this.renderer = renderer;
+	}
+
+	// final centroids as packed 0xRRGGBB ints.
+	public int[] getCentroids() {
+		return centroids.clone();
+	}
+
+	// number of iterations that ran.
+	public int getIterations() {
+		return iterations;
+	}
+
+	// pixels that changed cluster in the last iteration.
+	public int getChangedPixels() {
+		return changedPixels;
+	}
+
+	// how far the centroids moved in the last iteration, in (H,S,V) units.
+	public double getCentroidShift() {
+		return centroidShift;
+	}
+
+	// true if the run stopped on a threshold rather than the iteration budget.
+	public boolean isConverged() {
+		return converged;
+	}
+
+	// the segmented image, drawn the first time it's asked for when no
+	// snapshot sink needed it; null when the session was only fit.
+	public synchronized BufferedImage getImage() {
+		if(image == null && renderer != null){
+			image = renderer.render();
+			renderer = null;
+		}
+		return image;
+	}
+
+	// one cluster index per pixel, row-major.
+	public byte[] getLabels() {
+		return labels.clone();
+	}
+
+	// the cluster of the center (or face) pixel.
+	public int getForegroundLabel() {
+		return foreground;
+	}
+
+	// the pixels in the foreground cluster, for feature extraction downstream.
+	public BitSet getForeground() {
+		return KMeansEngine.mask(labels, foreground);
+	}
+
+	// tags of the snapshots the run handed to its sink, in order: the
+	// iterations that ran and were due one, then "final". Only "final" when
+	// the run came from the cache.
+	public List<String> getSnapshots() {
+		return snapshots;
+	}
+
+	@Override
+	public String toString() {
+		return "k=" + centroids.length + " iterations=" + iterations + (converged ? " (converged)" : "")
+				+ " changed=" + changedPixels + " shift=" + centroidShift + " centroids=" + Arrays.toString(centroids);
+	}
+
+}
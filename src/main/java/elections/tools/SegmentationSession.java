@@ -0,0 +1,448 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import com.yammer.metrics.core.TimerContext;
+
+// One k-means segmentation of one image.
+//
+// The session owns every buffer the segmentation touches (pixels, HSV planes,
+// centroids, accumulators and labels), so each request gets its own session
+// and any number of them can run on different threads at the same time.
+// A single session is not meant to be shared between threads.
+//
+// Labels are kept as one byte per pixel. The foreground is the cluster of the
+// center pixel, by label, and images are only drawn for snapshots or when a
+// result's image is asked for.
+//
+// A session on an ImageBuffer keeps its pixels and (H,S,V) planes off the
+// heap, which leaves one byte per pixel (the labels) on it. Those sessions
+// assign on one thread and don't support quantization.
+public class SegmentationSession {
+
+	// labels are bytes.
+	public static final int MAX_CLUSTERS = Byte.MAX_VALUE;
+
+	private final String name;
+	private final SegmentationOptions options;
+	private final int width, height, size;
+	// the pixels; rgb is their array, null for an ImageBuffer.
+	private final IntBuffer pixels;
+	private final int[] rgb;
+	private final float[] h, s, v;
+	// the (H,S,V) planes of an ImageBuffer session, in direct buffers.
+	private final FloatBuffer hb, sb, vb;
+
+	// with quantization the iterations run over the image's palette instead
+	// of its pixels, and per pixel labels are only filled in when needed.
+	private final ColorPalette palette;
+	private final byte[] entryLabels;
+	private boolean labelsStale;
+
+	// per pixel distance bounds of an exact heap session, null without them.
+	private final BoundedAssignment bounds;
+
+	private final int[] centroids;
+	private final int[] colors;
+	private final float[] ch, cs, cv, scratch;
+	private final long[] sums;
+	private final int[] counts;
+	private final byte[] labels;
+
+	// the pixel whose segment is kept, and the crosshair drawn over the rest.
+	private final int center, crossX, crossY;
+
+	// the image the results are drawn on; bigger than width x height when only
+	// a region of it is segmented (see place()), the rest being background.
+	private int frameWidth, frameHeight, frameX, frameY;
+
+	// progress of the run.
+	private int loops, changedPixels;
+	private double centroidShift;
+	private boolean converged;
+	// fraction of the distances the last iteration didn't compute.
+	private double skipped;
+
+	// the coarse run of a pyramid session; its parent reports the segmentation.
+	private boolean coarse;
+
+	// with options.getCache(): the key of this segmentation and its entry once
+	// it has been looked up or stored.
+	private String cacheKey;
+	private SegmentationCache.Entry cacheEntry;
+
+	// tags of the snapshots handed to the sink so far.
+	private final List<String> snapshots = new ArrayList<String>();
+
+	// img is converted to TYPE_INT_RGB if it isn't already (see Rasters).
+	public SegmentationSession(String name, BufferedImage img, int[] seeds, int centerX, int centerY, int crossX, int crossY,
+			SegmentationOptions options){
+		this(name, Rasters.data(Rasters.toIntRGB(img)), img.getWidth(), img.getHeight(), seeds, centerX, centerY, crossX, crossY, options);
+	}
+
+	// the image's pixels and planes stay off the heap.
+	public SegmentationSession(String name, ImageBuffer image, int[] seeds, int centerX, int centerY, int crossX, int crossY,
+			SegmentationOptions options){
+		this(name, null, image.getPixels(), image.getWidth(), image.getHeight(), seeds, centerX, centerY, crossX, crossY, options);
+	}
+
+	// SeedingStrategy.RANDOM seeds anchored on the image center, what
+	// KMeansActions.SegmentImage starts from; for runs that need the same seeds.
+	public static int[] seeds(BufferedImage img, int k, Random random){
+		int width = img.getWidth(), height = img.getHeight();
+		return SeedingStrategy.RANDOM.seeds(IntBuffer.wrap(Rasters.data(Rasters.toIntRGB(img))), width, height, k,
+				(height/2)*width + width/2, random);
+	}
+
+	// rgb is row-major packed 0xRRGGBB and is only read.
+	SegmentationSession(String name, int[] rgb, int width, int height, int[] seeds,
+			int centerX, int centerY, int crossX, int crossY, SegmentationOptions options){
+		this(name, rgb, IntBuffer.wrap(rgb), width, height, seeds, centerX, centerY, crossX, crossY, options);
+	}
+
+	private SegmentationSession(String name, int[] rgb, IntBuffer pixels, int width, int height, int[] seeds,
+			int centerX, int centerY, int crossX, int crossY, SegmentationOptions options){
+		this.name = name;
+		this.options = options;
+		this.width = width;
+		this.height = height;
+		this.size = width*height;
+		this.rgb = rgb;
+		this.pixels = pixels;
+		if(rgb == null){
+			if(options.getQuantizationBits() > 0){
+				throw new IllegalArgumentException("quantization needs the pixels on the heap");
+			}
+			this.palette = null;
+			this.entryLabels = null;
+			this.h = this.s = this.v = null;
+			this.hb = ImageBuffer.direct(size).asFloatBuffer();
+			this.sb = ImageBuffer.direct(size).asFloatBuffer();
+			this.vb = ImageBuffer.direct(size).asFloatBuffer();
+			KMeansEngine.hsv(pixels, hb, sb, vb);
+		}else if(options.getQuantizationBits() > 0){
+			this.hb = this.sb = this.vb = null;
+			this.palette = new ColorPalette(rgb, HSVTable.get(options.getQuantizationBits()));
+			this.entryLabels = new byte[palette.size()];
+			Arrays.fill(entryLabels, (byte) -1);
+			this.h = this.s = this.v = null;
+		}else{
+			this.hb = this.sb = this.vb = null;
+			this.palette = null;
+			this.entryLabels = null;
+			this.h = new float[size];
+			this.s = new float[size];
+			this.v = new float[size];
+			KMeansEngine.hsv(rgb, h, s, v);
+		}
+
+		int k = seeds.length;
+		if(k < 1 || k > MAX_CLUSTERS){
+			throw new IllegalArgumentException("k must be between 1 and " + MAX_CLUSTERS);
+		}
+		this.centroids = seeds.clone();
+		this.colors = new int[k];
+		this.ch = new float[k];
+		this.cs = new float[k];
+		this.cv = new float[k];
+		this.scratch = new float[3];
+		this.sums = new long[3*k];
+		this.counts = new int[k];
+		this.labels = new byte[size];
+		Arrays.fill(labels, (byte) -1);
+		this.bounds = options.isBounded() && h != null ? new BoundedAssignment(size, k) : null;
+
+		this.center = centerY*width + centerX;
+		this.crossX = crossX;
+		this.crossY = crossY;
+		this.frameWidth = width;
+		this.frameHeight = height;
+		if(options.getCache() != null){
+			this.cacheKey = SegmentationCache.key(pixels, width, height, seeds, options, center, crossX, crossY);
+		}
+	}
+
+	// segment the image and render the result. Intermediate images only get
+	// drawn when the options have a snapshot sink.
+	public SegmentationResult run(){
+		SnapshotSink sink = options.getSnapshotSink();
+
+		if(restore()){
+			// the intermediate snapshots were drawn by the run that was cached.
+			if(sink == SnapshotSink.NONE)
+				return result(null, true);
+			BufferedImage image = render();
+			snapshot(sink, "final", image);
+			return result(image, false);
+		}
+
+		if(Pyramid.level(width, height, options.getPyramidLevel()) > 0){
+			fitPyramid();
+		}else{
+			// iterate through the loops.
+			for(int ic=0; ic < options.getMaxIterations() && !converged; ic++){
+				iterate();
+				if(snapshot(ic))
+					snapshot(sink, String.valueOf(ic), render());
+			}
+		}
+
+		store();
+		if(sink == SnapshotSink.NONE)
+			return result(null, true);
+		BufferedImage image = render();
+		snapshot(sink, "final", image);
+		return result(image, false);
+	}
+
+	// run the iterations without drawing anything.
+	public SegmentationResult fit(){
+		if(restore()){
+			return result(null, false);
+		}
+		if(Pyramid.level(width, height, options.getPyramidLevel()) > 0){
+			fitPyramid();
+		}else{
+			while(loops < options.getMaxIterations() && !converged){
+				iterate();
+			}
+		}
+		store();
+		return result(null, false);
+	}
+
+	// pick up a cached run of the same segmentation, if there is one.
+	boolean restore(){
+		if(cacheKey == null){
+			return false;
+		}
+		SegmentationCache.Entry entry = options.getCache().get(cacheKey);
+		if(entry == null){
+			return false;
+		}
+		System.arraycopy(entry.centroids, 0, centroids, 0, centroids.length);
+		System.arraycopy(entry.colors, 0, colors, 0, colors.length);
+		System.arraycopy(entry.labels, 0, labels, 0, labels.length);
+		labelsStale = false;
+		loops = entry.iterations;
+		changedPixels = entry.changedPixels;
+		centroidShift = entry.centroidShift;
+		converged = entry.converged;
+		cacheEntry = entry;
+		return true;
+	}
+
+	// counted once per computed segmentation, cached runs aren't.
+	void store(){
+		if(!coarse){
+			SegmentationMetrics.segmented(size, loops, converged, counts);
+		}
+		if(cacheKey == null){
+			return;
+		}
+		cacheEntry = new SegmentationCache.Entry(centroids.clone(), colors.clone(), labels().clone(),
+				loops, changedPixels, centroidShift, converged);
+		options.getCache().put(cacheKey, cacheEntry);
+	}
+
+	// coarse to fine: iterate on a 1/2^level box-filtered copy of the image,
+	// then a single full-resolution assignment pass with those centroids.
+	// Images smaller than one block are fitted at full resolution instead.
+	void fitPyramid(){
+		int factor = Pyramid.factor(Pyramid.level(width, height, options.getPyramidLevel()));
+		int coarseWidth = Pyramid.scaled(width, factor), coarseHeight = Pyramid.scaled(height, factor);
+		int[] small = Pyramid.downsample(pixels, width, height, factor);
+
+		SegmentationOptions coarseOptions = options.copy();
+		coarseOptions.setPyramidLevel(0);
+		coarseOptions.setSnapshotSink(SnapshotSink.NONE);
+		coarseOptions.setCache(null);
+		SegmentationSession coarse = new SegmentationSession(name, small, coarseWidth, coarseHeight, centroids,
+				0, 0, 0, 0, coarseOptions);
+		coarse.coarse = true;
+		coarse.fit();
+
+		System.arraycopy(coarse.centroids, 0, centroids, 0, centroids.length);
+		iterate();
+
+		// the full-resolution pass starts from unlabelled pixels, so report
+		// how the coarse run converged instead.
+		loops += coarse.loops;
+		changedPixels = coarse.changedPixels;
+		centroidShift = coarse.centroidShift;
+		converged = coarse.converged;
+	}
+
+	// with lazy, the image is drawn the first time the result is asked for it.
+	SegmentationResult result(BufferedImage image, boolean lazy){
+		byte[] labels = labels().clone();
+		int foreground = labels[center];
+		return new SegmentationResult(centroids.clone(), loops, changedPixels, centroidShift, converged, image,
+				labels, foreground, new ArrayList<String>(snapshots), lazy ? renderer(pixels, width, height, labels, foreground, crossX, crossY,
+						frameWidth, frameHeight, frameX, frameY) : null);
+	}
+
+	// static, so a result doesn't keep the session's buffers alive.
+	static SegmentationResult.Renderer renderer(final IntBuffer rgb, final int width, final int height, final byte[] labels,
+			final int foreground, final int crossX, final int crossY,
+			final int frameWidth, final int frameHeight, final int frameX, final int frameY){
+		return new SegmentationResult.Renderer(){
+			public BufferedImage render(){
+				return SegmentationSession.render(rgb, width, height, labels, foreground, crossX, crossY,
+						frameWidth, frameHeight, frameX, frameY);
+			}
+		};
+	}
+
+	boolean snapshot(int ic){
+		int interval = options.getSnapshotInterval();
+		return options.getSnapshotSink() != SnapshotSink.NONE && interval > 0 && ic%interval == 0;
+	}
+
+	void snapshot(SnapshotSink sink, String tag, BufferedImage image){
+		TimerContext timer = SegmentationMetrics.SNAPSHOT.time();
+		try {
+			sink.snapshot(name, tag, image);
+			snapshots.add(tag);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	// Redraw the image with the current segments.
+	BufferedImage render(){
+		byte[] labels = labels();
+		return render(pixels, width, height, labels, labels[center], crossX, crossY, frameWidth, frameHeight, frameX, frameY);
+	}
+
+	static BufferedImage render(IntBuffer rgb, int width, int height, byte[] labels, int foreground, int crossX, int crossY,
+			int frameWidth, int frameHeight, int frameX, int frameY){
+		TimerContext timer = SegmentationMetrics.REDRAW.time();
+		try {
+			BufferedImage temp = Rasters.create(frameWidth, frameHeight);
+			KMeansEngine.redraw(rgb, width, height, labels, foreground, crossX, crossY, Rasters.data(temp),
+					frameY*frameWidth + frameX, frameWidth);
+			return temp;
+		} finally {
+			timer.stop();
+		}
+	}
+
+	// one assignment + update step. colors keeps the centroids the pixels were
+	// assigned to, since the redraw compares against those.
+	void iterate(){
+		TimerContext timer = SegmentationMetrics.ITERATION.time();
+		try {
+			step();
+		} finally {
+			timer.stop();
+		}
+	}
+
+	void step(){
+		Arrays.fill(sums, 0);
+		Arrays.fill(counts, 0);
+		System.arraycopy(centroids, 0, colors, 0, centroids.length);
+		KMeansEngine.hsv(centroids, ch, cs, cv, scratch);
+		int changed;
+		int parallelism = options.effectiveParallelism();
+		int k = centroids.length;
+		if(palette != null){
+			changed = palette.assign(ch, cs, cv, entryLabels, sums, counts);
+			labelsStale = true;
+			SegmentationMetrics.DISTANCES.inc((long) palette.size()*k);
+		}else if(bounds != null){
+			bounds.step(ch, cs, cv);
+			changed = ParallelAssignment.assign(rgb, h, s, v, width, height, ch, cs, cv, labels, sums, counts,
+					parallelism, bounds);
+			bounds.totals(sums, counts);
+			skipped = bounds.getSkipped();
+			SegmentationMetrics.DISTANCES.inc(bounds.getDistances());
+			SegmentationMetrics.SKIPPED_DISTANCES.inc((long) size*k - bounds.getDistances());
+		}else if(rgb == null){
+			changed = KMeansEngine.assign(pixels, hb, sb, vb, 0, size, ch, cs, cv, labels, sums, counts);
+		}else if(parallelism > 1){
+			changed = ParallelAssignment.assign(rgb, h, s, v, width, height, ch, cs, cv, labels, sums, counts, parallelism);
+		}else{
+			changed = KMeansEngine.assign(rgb, h, s, v, 0, size, ch, cs, cv, labels, sums, counts);
+		}
+		if(palette == null && bounds == null){
+			SegmentationMetrics.DISTANCES.inc((long) size*k);
+		}
+		KMeansEngine.update(centroids, sums, counts);
+
+		loops++;
+		changedPixels = changed;
+		centroidShift = KMeansEngine.shift(colors, centroids);
+		converged = changedPixels <= options.getMinChangedFraction()*size
+				|| centroidShift <= options.getMaxCentroidShift();
+	}
+
+	// draw results at (x, y) of a frameWidth x frameHeight image instead.
+	void place(int frameWidth, int frameHeight, int x, int y){
+		if(x < 0 || y < 0 || x + width > frameWidth || y + height > frameHeight){
+			throw new IllegalArgumentException("region doesn't fit the frame");
+		}
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+		this.frameX = x;
+		this.frameY = y;
+	}
+
+	// fraction of the distances the last iteration skipped; 0 without bounds.
+	double skipped(){
+		return skipped;
+	}
+
+	boolean converged(){
+		return converged;
+	}
+
+	// the cache key and entry of a fitted session; null without a cache.
+	String cacheKey(){
+		return cacheKey;
+	}
+
+	SegmentationCache.Entry cacheEntry(){
+		return cacheEntry;
+	}
+
+	public int[] getCentroids(){
+		return centroids.clone();
+	}
+
+	// one cluster index per pixel, row-major.
+	public byte[] getLabels(){
+		return labels().clone();
+	}
+
+	// the pixels in the center pixel's cluster.
+	public BitSet getForeground(){
+		byte[] labels = labels();
+		return KMeansEngine.mask(labels, labels[center]);
+	}
+
+	byte[] labels(){
+		if(labelsStale){
+			palette.expand(entryLabels, labels);
+			labelsStale = false;
+		}
+		return labels;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+}
@@ -0,0 +1,18 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+
+// Receives the intermediate and final images of a segmentation.
+// tag is the iteration number, or "final" for the finished image. The image
+// belongs to the sink once it's handed over; the session won't touch it again.
+public interface SnapshotSink {
+
+	// drop everything; the session skips drawing snapshots altogether.
+	SnapshotSink NONE = new SnapshotSink(){
+		public void snapshot(String name, String tag, BufferedImage image){
+		}
+	};
+
+	void snapshot(String name, String tag, BufferedImage image);
+
+}
@@ -0,0 +1,155 @@
+package elections.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import elections.model.Photo;
+
+// A trained positive/negative Photo classifier.
+//
+// Holds the support vectors SvmSolver kept, their coefficients a_i y_i, rho
+// and the per feature min/max the training set was scaled with (the quadrants
+// are 0..100, everything else is a fraction, so unscaled they would drown the
+// rest), all as plain arrays so the model serializes as it is. Nothing is
+// changed after training or loading, so one model is shared by every request
+// thread.
+public class SvmModel implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// batches are scored in chunks of this many photos.
+	static final int CHUNK = 64;
+
+	// scoring threads, shared by every model.
+	private static final ExecutorService scoring = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+				private int n;
+				public synchronized Thread newThread(Runnable r){
+					Thread t = new Thread(r, "svm-" + (n++));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final float[][] vectors;
+	private final double[] coefficients;
+	private final double rho;
+	private final double[] min, max;
+	private final double c, gamma;
+
+	SvmModel(float[][] vectors, double[] coefficients, double rho, double[] min, double[] max, double c, double gamma){
+		this.vectors = vectors;
+		this.coefficients = coefficients;
+		this.rho = rho;
+		this.min = min;
+		this.max = max;
+		this.c = c;
+		this.gamma = gamma;
+	}
+
+	// true if the photo is predicted positive.
+	public boolean predict(Photo photo){
+		return decision(photo) > 0;
+	}
+
+	// sum_i a_i y_i K(x_i, x) - rho; positive on the positive side.
+	public double decision(Photo photo){
+		float[] x = vector(photo, min, max);
+		double sum = -rho;
+		for(int i=0; i < vectors.length; i++){
+			sum += coefficients[i]*SvmSolver.kernel(vectors[i], x, gamma);
+		}
+		return sum;
+	}
+
+	// scores a batch, in parallel chunks for big ones.
+	public boolean[] predict(final List<Photo> photos) throws InterruptedException{
+		final boolean[] labels = new boolean[photos.size()];
+		if(photos.size() <= CHUNK){
+			for(int i=0; i < labels.length; i++){
+				labels[i] = predict(photos.get(i));
+			}
+			return labels;
+		}
+
+		List<Future<?>> chunks = new ArrayList<Future<?>>();
+		for(int from=0; from < labels.length; from += CHUNK){
+			final int start = from, end = Math.min(labels.length, from + CHUNK);
+			chunks.add(scoring.submit(new Callable<Void>(){
+				public Void call(){
+					for(int i=start; i < end; i++){
+						labels[i] = predict(photos.get(i));
+					}
+					return null;
+				}
+			}));
+		}
+		try{
+			for(Future<?> chunk : chunks){
+				chunk.get();
+			}
+		}catch(ExecutionException e){
+			throw new IllegalStateException("scoring failed", e.getCause());
+		}
+		return labels;
+	}
+
+	public double getC(){
+		return c;
+	}
+
+	public double getGamma(){
+		return gamma;
+	}
+
+	public int getSupportVectors(){
+		return vectors.length;
+	}
+
+	// the features scaled to 0..1 by the training set's range.
+	static float[] vector(Photo photo, double[] min, double[] max){
+		double[] features = photo.getFeatures();
+		float[] vector = new float[features.length];
+		for(int i=0; i < features.length; i++){
+			double range = max[i] - min[i];
+			vector[i] = range == 0 ? 0 : (float)((features[i] - min[i]) / range);
+		}
+		return vector;
+	}
+
+	public void save(File file) throws IOException{
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			out.writeObject(this);
+		}finally{
+			out.close();
+		}
+	}
+
+	public static SvmModel load(File file) throws IOException{
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			return (SvmModel) in.readObject();
+		}catch(ClassNotFoundException e){
+			throw new IOException(file + " is not an svm model", e);
+		}finally{
+			in.close();
+		}
+	}
+
+}
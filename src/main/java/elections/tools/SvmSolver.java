@@ -0,0 +1,251 @@
+package elections.tools;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// C-SVC with an RBF kernel, solved with SMO the way libsvm's Solver does it:
+// the dual
+//
+//   min 1/2 a'Qa - e'a   subject to 0 <= a_i <= C and y'a = 0,
+//   Q_ij = y_i y_j exp(-gamma |x_i - x_j|^2)
+//
+// two multipliers at a time, picked with libsvm's second order working set
+// selection, until the maximal KKT violation is under eps. No shrinking; the
+// kernel rows the working sets touch are kept in an LRU cache of cacheBytes.
+//
+// y is true for the positive class, which gets the +1 side of the decision
+// value sum_i a_i y_i K(x_i, x) - rho.
+class SvmSolver {
+
+	static final double TAU = 1e-12;
+
+	private final float[][] x;
+	private final byte[] y;
+	private final double c, gamma, eps;
+	private final int n;
+	private final double[] alpha, gradient;
+	private final Map<Integer, float[]> rows;
+	private int iterations;
+
+	SvmSolver(float[][] x, boolean[] positive, double c, double gamma, double eps, long cacheBytes){
+		this.x = x;
+		this.n = x.length;
+		this.y = new byte[n];
+		for(int i=0; i < n; i++){
+			y[i] = positive[i] ? (byte) 1 : (byte) -1;
+		}
+		this.c = c;
+		this.gamma = gamma;
+		this.eps = eps;
+		this.alpha = new double[n];
+		this.gradient = new double[n];
+		final int maxRows = (int) Math.max(2, Math.min(n, cacheBytes/(4L*Math.max(1, n))));
+		this.rows = new LinkedHashMap<Integer, float[]>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Integer, float[]> eldest){
+				return size() > maxRows;
+			}
+		};
+	}
+
+	// runs SMO to convergence (or libsvm's iteration cap) and returns rho.
+	double solve(){
+		// a = 0, so the gradient Qa - e is -1 everywhere.
+		Arrays.fill(gradient, -1);
+		int maxIterations = Math.max(10000000, n > Integer.MAX_VALUE/100 ? Integer.MAX_VALUE : 100*n);
+		int[] pair = new int[2];
+		for(iterations=0; iterations < maxIterations && select(pair); iterations++){
+			update(pair[0], pair[1]);
+		}
+		return rho();
+	}
+
+	// the maximal violating i, then the j that decreases the objective most
+	// with it; false once the violation is under eps.
+	boolean select(int[] pair){
+		double gmax = Double.NEGATIVE_INFINITY, gmax2 = Double.NEGATIVE_INFINITY;
+		int i = -1;
+		for(int t=0; t < n; t++){
+			if(y[t] == 1){
+				if(!atUpper(t) && -gradient[t] >= gmax){
+					gmax = -gradient[t];
+					i = t;
+				}
+			}else if(!atLower(t) && gradient[t] >= gmax){
+				gmax = gradient[t];
+				i = t;
+			}
+		}
+		if(i == -1){
+			return false;
+		}
+		float[] qi = row(i);
+		double qii = 1;
+		int j = -1;
+		double best = Double.POSITIVE_INFINITY;
+		for(int t=0; t < n; t++){
+			double diff, quad;
+			if(y[t] == 1){
+				if(atLower(t)){
+					continue;
+				}
+				gmax2 = Math.max(gmax2, gradient[t]);
+				diff = gmax + gradient[t];
+				quad = qii + 1 - 2*y[i]*qi[t];
+			}else{
+				if(atUpper(t)){
+					continue;
+				}
+				gmax2 = Math.max(gmax2, -gradient[t]);
+				diff = gmax - gradient[t];
+				quad = qii + 1 + 2*y[i]*qi[t];
+			}
+			if(diff > 0){
+				double decrease = -diff*diff/(quad > 0 ? quad : TAU);
+				if(decrease <= best){
+					best = decrease;
+					j = t;
+				}
+			}
+		}
+		if(gmax + gmax2 < eps || j == -1){
+			return false;
+		}
+		pair[0] = i;
+		pair[1] = j;
+		return true;
+	}
+
+	// solves the two variable subproblem of i and j and updates the gradient.
+	// The RBF kernel's diagonal is 1, so Q_ii = Q_jj = 1.
+	void update(int i, int j){
+		float[] qi = row(i), qj = row(j);
+		double oldI = alpha[i], oldJ = alpha[j];
+		if(y[i] != y[j]){
+			double quad = 2 + 2*qi[j];
+			double delta = (-gradient[i] - gradient[j])/(quad > 0 ? quad : TAU);
+			double diff = alpha[i] - alpha[j];
+			alpha[i] += delta;
+			alpha[j] += delta;
+			if(diff > 0){
+				if(alpha[j] < 0){
+					alpha[j] = 0;
+					alpha[i] = diff;
+				}
+			}else if(alpha[i] < 0){
+				alpha[i] = 0;
+				alpha[j] = -diff;
+			}
+			if(diff > 0){
+				if(alpha[i] > c){
+					alpha[i] = c;
+					alpha[j] = c - diff;
+				}
+			}else if(alpha[j] > c){
+				alpha[j] = c;
+				alpha[i] = c + diff;
+			}
+		}else{
+			double quad = 2 - 2*qi[j];
+			double delta = (gradient[i] - gradient[j])/(quad > 0 ? quad : TAU);
+			double sum = alpha[i] + alpha[j];
+			alpha[i] -= delta;
+			alpha[j] += delta;
+			if(sum > c){
+				if(alpha[i] > c){
+					alpha[i] = c;
+					alpha[j] = sum - c;
+				}
+			}else if(alpha[j] < 0){
+				alpha[j] = 0;
+				alpha[i] = sum;
+			}
+			if(sum > c){
+				if(alpha[j] > c){
+					alpha[j] = c;
+					alpha[i] = sum - c;
+				}
+			}else if(alpha[i] < 0){
+				alpha[i] = 0;
+				alpha[j] = sum;
+			}
+		}
+		double di = alpha[i] - oldI, dj = alpha[j] - oldJ;
+		for(int t=0; t < n; t++){
+			gradient[t] += qi[t]*di + qj[t]*dj;
+		}
+	}
+
+	// the mean y_i G_i over the free multipliers, or the middle of the
+	// feasible range when none is free.
+	double rho(){
+		double upper = Double.POSITIVE_INFINITY, lower = Double.NEGATIVE_INFINITY, sum = 0;
+		int free = 0;
+		for(int i=0; i < n; i++){
+			double yg = y[i]*gradient[i];
+			if(atUpper(i)){
+				if(y[i] == -1){
+					upper = Math.min(upper, yg);
+				}else{
+					lower = Math.max(lower, yg);
+				}
+			}else if(atLower(i)){
+				if(y[i] == 1){
+					upper = Math.min(upper, yg);
+				}else{
+					lower = Math.max(lower, yg);
+				}
+			}else{
+				free++;
+				sum += yg;
+			}
+		}
+		return free > 0 ? sum/free : (upper + lower)/2;
+	}
+
+	boolean atUpper(int i){
+		return alpha[i] >= c;
+	}
+
+	boolean atLower(int i){
+		return alpha[i] <= 0;
+	}
+
+	// row i of Q.
+	float[] row(int i){
+		float[] row = rows.get(i);
+		if(row == null){
+			row = new float[n];
+			for(int t=0; t < n; t++){
+				row[t] = (float)(y[i]*y[t]*kernel(x[i], x[t], gamma));
+			}
+			rows.put(i, row);
+		}
+		return row;
+	}
+
+	static double kernel(float[] a, float[] b, double gamma){
+		double d = 0;
+		for(int k=0; k < a.length; k++){
+			double diff = a[k] - b[k];
+			d += diff*diff;
+		}
+		return Math.exp(-gamma*d);
+	}
+
+	// a_i of every training vector.
+	double[] getAlpha(){
+		return alpha;
+	}
+
+	// -1 for the negative class, 1 for the positive.
+	int getY(int i){
+		return y[i];
+	}
+
+	int getIterations(){
+		return iterations;
+	}
+
+}
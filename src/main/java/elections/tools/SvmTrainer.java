@@ -0,0 +1,192 @@
+package elections.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import elections.model.Photo;
+
+// Trains SvmModels (C-SVC with an RBF kernel, see SvmSolver) from Photo
+// feature vectors.
+//
+// The grid search runs every (C, gamma, fold) as its own task, so all the
+// cores stay busy across the whole grid rather than within one point.
+//
+//   java elections.tools.SvmTrainer [features=features.bin] [out=svm.model] [folds=5] [threads=cores]
+//
+// reads a FeatureFile (see BatchFeatures) or the features stored in an
+// ImageCorpus (see CorpusBuilder), cross validates the libsvm grid.py default
+// grid (C = 2^-5..2^15, gamma = 2^-15..2^3), then trains the best point on
+// every photo and saves it.
+public class SvmTrainer {
+
+	public static void main(String[] args) throws Exception{
+		File in = new File(args.length > 0 ? args[0] : "features.bin");
+		File out = new File(args.length > 1 ? args[1] : "svm.model");
+		int folds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		List<Photo> photos = new ArrayList<Photo>(read(in).values());
+		double[] cs = powers(-5, 15, 2), gammas = powers(-15, 3, 2);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		double[][] accuracy;
+		try{
+			accuracy = search(photos, cs, gammas, folds, pool);
+		}finally{
+			pool.shutdown();
+		}
+
+		int bestC = 0, bestGamma = 0;
+		System.out.println("C\tgamma\taccuracy");
+		for(int i=0; i < cs.length; i++){
+			for(int j=0; j < gammas.length; j++){
+				System.out.println(cs[i]+"\t"+gammas[j]+"\t"+String.format("%.4f", accuracy[i][j]));
+				if(accuracy[i][j] > accuracy[bestC][bestGamma]){
+					bestC = i;
+					bestGamma = j;
+				}
+			}
+		}
+		System.out.println(photos.size()+" photos, "+cs.length*gammas.length+" points x "+folds+" folds in "
+				+String.format("%.1f", (System.nanoTime() - start)/1e9)+"s on "+threads+" threads");
+
+		SvmModel model = train(photos, cs[bestC], gammas[bestGamma]);
+		model.save(out);
+		System.out.println("best C="+cs[bestC]+" gamma="+gammas[bestGamma]+" accuracy="
+				+String.format("%.4f", accuracy[bestC][bestGamma])+" -> "+out);
+	}
+
+	// the photos of a FeatureFile, or the stored features of an ImageCorpus.
+	static Map<String, Photo> read(File in) throws IOException{
+		if(!ImageCorpus.isCorpus(in)){
+			return FeatureFile.read(in);
+		}
+		ImageCorpus corpus = new ImageCorpus(in);
+		try{
+			return corpus.photos();
+		}finally{
+			corpus.close();
+		}
+	}
+
+	public static SvmModel train(List<Photo> photos, double c, double gamma){
+		int n = photos.get(0).getFeatures().length;
+		double[] min = new double[n], max = new double[n];
+		Arrays.fill(min, Double.MAX_VALUE);
+		Arrays.fill(max, -Double.MAX_VALUE);
+		for(Photo photo : photos){
+			double[] features = photo.getFeatures();
+			for(int i=0; i < n; i++){
+				min[i] = Math.min(min[i], features[i]);
+				max[i] = Math.max(max[i], features[i]);
+			}
+		}
+
+		float[][] x = new float[photos.size()][];
+		boolean[] positive = new boolean[photos.size()];
+		for(int i=0; i < x.length; i++){
+			x[i] = SvmModel.vector(photos.get(i), min, max);
+			positive[i] = photos.get(i).isPositive();
+		}
+
+		// libsvm's defaults: eps 1e-3, a 100MB kernel cache.
+		SvmSolver solver = new SvmSolver(x, positive, c, gamma, 1e-3, 100L*1024*1024);
+		double rho = solver.solve();
+
+		// only the vectors with a_i > 0 take part in a decision.
+		double[] alpha = solver.getAlpha();
+		int kept = 0;
+		for(double a : alpha){
+			if(a > 0){
+				kept++;
+			}
+		}
+		float[][] vectors = new float[kept][];
+		double[] coefficients = new double[kept];
+		for(int i=0, k=0; i < alpha.length; i++){
+			if(alpha[i] > 0){
+				vectors[k] = x[i];
+				coefficients[k++] = alpha[i]*solver.getY(i);
+			}
+		}
+		return new SvmModel(vectors, coefficients, rho, min, max, c, gamma);
+	}
+
+	// cross validated accuracy of every (cs[i], gammas[j]).
+	// The folds are the same for every point.
+	public static double[][] search(List<Photo> photos, double[] cs, double[] gammas, int folds, ExecutorService pool)
+			throws Exception{
+		final List<List<Photo>> train = new ArrayList<List<Photo>>(), test = new ArrayList<List<Photo>>();
+		split(photos, folds, new Random(42), train, test);
+
+		List<List<Future<Integer>>> correct = new ArrayList<List<Future<Integer>>>();
+		for(final double c : cs){
+			for(final double gamma : gammas){
+				List<Future<Integer>> point = new ArrayList<Future<Integer>>();
+				for(int f=0; f < folds; f++){
+					final int fold = f;
+					point.add(pool.submit(new Callable<Integer>(){
+						public Integer call() throws Exception{
+							SvmModel model = train(train.get(fold), c, gamma);
+							int right = 0;
+							for(Photo photo : test.get(fold)){
+								if(model.predict(photo) == photo.isPositive()){
+									right++;
+								}
+							}
+							return right;
+						}
+					}));
+				}
+				correct.add(point);
+			}
+		}
+
+		double[][] accuracy = new double[cs.length][gammas.length];
+		for(int i=0; i < cs.length; i++){
+			for(int j=0; j < gammas.length; j++){
+				int right = 0;
+				for(Future<Integer> fold : correct.get(i*gammas.length + j)){
+					right += fold.get();
+				}
+				accuracy[i][j] = (double)right / photos.size();
+			}
+		}
+		return accuracy;
+	}
+
+	// shuffles the photos and deals them into folds; test.get(f) is fold f
+	// and train.get(f) everything else.
+	static void split(List<Photo> photos, int folds, Random random, List<List<Photo>> train, List<List<Photo>> test){
+		List<Photo> shuffled = new ArrayList<Photo>(photos);
+		Collections.shuffle(shuffled, random);
+		for(int f=0; f < folds; f++){
+			List<Photo> in = new ArrayList<Photo>(), out = new ArrayList<Photo>();
+			for(int i=0; i < shuffled.size(); i++){
+				(i % folds == f ? out : in).add(shuffled.get(i));
+			}
+			train.add(in);
+			test.add(out);
+		}
+	}
+
+	static double[] powers(int from, int to, int step){
+		double[] values = new double[(to - from)/step + 1];
+		for(int i=0; i < values.length; i++){
+			values[i] = Math.pow(2, from + i*step);
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,96 @@
+package elections.tools;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Seeds a segmentation with the shared centroids of a candidate's photo set
+// (see JointSegmentation), so an upload of the candidate starts next to where
+// it will end up instead of from random pixels.
+//
+// The centroids are read from <dir>/<candidate>.centroids, dir being
+// -Delections.segmentation.warmstart=DIR ("warmstart" by default), and read
+// again when the file's modification time changes, so a re-fit is picked up
+// without a restart. Requests pick it with ?seeding=warm:<candidate>. Like every
+// strategy, cluster 0 is the anchor pixel; it takes the place of the saved
+// centroid closest to it, the others follow in their saved order.
+public class WarmStartSeeding implements SeedingStrategy {
+
+	static final String DIR_PROPERTY = "elections.segmentation.warmstart";
+
+	private static final ConcurrentMap<String, WarmStartSeeding> candidates = new ConcurrentHashMap<String, WarmStartSeeding>();
+
+	private final String candidate;
+	private final int[] centroids;
+	// lastModified() of the file the centroids came from, 0 if none.
+	private final long modified;
+
+	public WarmStartSeeding(String candidate, int[] centroids){
+		this(candidate, centroids, 0);
+	}
+
+	WarmStartSeeding(String candidate, int[] centroids, long modified){
+		this.candidate = candidate;
+		this.centroids = centroids.clone();
+		this.modified = modified;
+	}
+
+	// the saved centroids of candidate.
+	public static WarmStartSeeding forCandidate(String candidate){
+		if(candidate == null || !candidate.matches("[A-Za-z0-9_-]+")){
+			throw new IllegalArgumentException("bad candidate " + candidate);
+		}
+		File file = new File(System.getProperty(DIR_PROPERTY, "warmstart"), candidate + ".centroids");
+		long modified = file.lastModified();
+		WarmStartSeeding seeding = candidates.get(candidate);
+		if(seeding != null && seeding.modified == modified){
+			return seeding;
+		}
+		try{
+			seeding = new WarmStartSeeding(candidate, JointSegmentation.load(file), modified);
+		}catch(IOException e){
+			throw new IllegalArgumentException("no warm start for " + candidate + " (" + file + ")", e);
+		}
+		// a request racing this one read the same file; either copy will do.
+		candidates.put(candidate, seeding);
+		return seeding;
+	}
+
+	public int[] seeds(IntBuffer rgb, int width, int height, int k, int anchor, Random random){
+		if(k != centroids.length){
+			throw new IllegalArgumentException("the warm start for " + candidate + " has " + centroids.length
+					+ " clusters, not " + k);
+		}
+		int p = rgb.get(anchor);
+		float[] a = Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, null), c = new float[3];
+		int replaced = 0;
+		double min = Double.MAX_VALUE;
+		for(int i=0; i < centroids.length; i++){
+			int q = centroids[i];
+			Color.RGBtoHSB((q >> 16) & 0xff, (q >> 8) & 0xff, q & 0xff, c);
+			double dh = a[0] - c[0], ds = a[1] - c[1], dv = a[2] - c[2];
+			double d = dh*dh + ds*ds + dv*dv;
+			if(d < min){
+				min = d;
+				replaced = i;
+			}
+		}
+		int[] seeds = new int[k];
+		seeds[0] = p;
+		for(int i=0, j=1; i < centroids.length; i++){
+			if(i != replaced){
+				seeds[j++] = centroids[i];
+			}
+		}
+		return seeds;
+	}
+
+	public String toString(){
+		return "warm:" + candidate;
+	}
+
+}
@@ -1,20 +1,21 @@
 var average
 function process(image, canvas){
-    var imageObj = new Image();
-    imageObj.src = image;
-    imageObj.onload = function(){
-        drawImage(this, canvas);
-    };
+    // the histograms are computed on the server, see /histograms/{image}.
+    var name = image.replace(/^.*\//, "").replace(/\.jpg$/, "");
+    $.getJSON("histograms/" + name, function(stats){
+        var imageObj = new Image();
+        imageObj.src = image;
+        imageObj.onload = function(){
+            drawImage(this, canvas, stats);
+        };
+    });
 }
-function drawImage(imageObj, canvasId){
+function drawImage(imageObj, canvasId, stats){
 
-// Initialize the histograms.
-var blues  = new Array(256);
-var reds   = new Array(256);
-var greens = new Array(256);
- for (var i = 0; i < blues.length; i ++) {
-	reds[i]=0; blues[i]=0; greens[i]=0;
-}
+// Histograms from the server.
+var blues  = stats.histograms.value;
+var reds   = stats.histograms.hue;
+var greens = stats.histograms.saturation;
 
 var canvas = document.getElementById(canvasId);
 var context = canvas.getContext("2d");
@@ -30,15 +31,6 @@ context.drawImage(imageObj, destX, destY);
 var imageData = context.getImageData(0, 0, sourceWidth, sourceHeight);
 var data = imageData.data;
  
-// to quickly iterate over all pixels, use a for loop like this
-for (var i = 0; i < data.length; i += 4) {
-	var red = data[i]; // red
-    var green = data[i + 1]; // green
-    var blue = data[i + 2]; // blue
-    blues[(red+green+blue)/3]++; reds[(red-blue)/2]++; greens[(2*green-red-blue)/4]++;	
-    // i+3 is alpha (the fourth element)
-}
- 
 // or iterate over all pixels based on x and y coordinates
 // like this
 for (var y = 0; y < sourceHeight; y++) {
@@ -60,19 +52,7 @@ var margin = {top: 30, right: 10, bottom: 10, left: 10},
 
 var x0 = Math.max(-d3.min(blues), d3.max(blues));
 
-var mBlue = x0;
-var mRed = d3.max(reds);
-var mGreen = d3.max(greens);
-
-var sBlue = 0.0;
-var sRed = 0.0;
-var sGreen = 0.0;
-for(var i=0; i<255; i++){
-	sBlue+=blues[i];
-	sGreen+=greens[i];
-	sRed+=reds[i];
-}
-$("#green").append(sBlue/mBlue+","+sRed/mRed+","+sGreen/mGreen+"<br/>");
+$("#green").append(stats.sumDivMax.value+","+stats.sumDivMax.hue+","+stats.sumDivMax.saturation+"<br/>");
 
 var x = d3.scale.linear()
     .domain([0, x0])
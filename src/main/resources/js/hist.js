@@ -1,20 +1,21 @@
 var average
 function process(image, canvas){
-    var imageObj = new Image();
-    imageObj.src = image;
-    imageObj.onload = function(){
-        drawImage(this, canvas);
-    };
+    // the histograms are computed on the server, see /histograms/{image}.
+    var name = image.replace(/^.*\//, "").replace(/\.jpg$/, "");
+    $.getJSON("histograms/" + name, function(stats){
+        var imageObj = new Image();
+        imageObj.src = image;
+        imageObj.onload = function(){
+            drawImage(this, canvas, stats);
+        };
+    });
 }
-function drawImage(imageObj, canvasId){
+function drawImage(imageObj, canvasId, stats){
 
-// Initialize the histograms.
-var blues  = new Array(256);
-var reds   = new Array(256);
-var greens = new Array(256);
- for (var i = 0; i < blues.length; i ++) {
-	reds[i]=0; blues[i]=0; greens[i]=0;
-}
+// Histograms from the server.
+var blues  = stats.histograms.blue;
+var reds   = stats.histograms.red;
+var greens = stats.histograms.green;
 
 var canvas = document.getElementById(canvasId);
 var context = canvas.getContext("2d");
@@ -30,15 +31,6 @@ context.drawImage(imageObj, destX, destY);
 var imageData = context.getImageData(0, 0, sourceWidth, sourceHeight);
 var data = imageData.data;
  
-// to quickly iterate over all pixels, use a for loop like this
-for (var i = 0; i < data.length; i += 4) {
-	var red = data[i]; // red
-    var green = data[i + 1]; // green
-    var blue = data[i + 2]; // blue
-    blues[blue]++; reds[red]++; greens[green]++;	
-    // i+3 is alpha (the fourth element)
-}
- 
 // or iterate over all pixels based on x and y coordinates
 // like this
 for (var y = 0; y < sourceHeight; y++) {
@@ -78,28 +78,43 @@
   		var button = $(this);
   		var src = $(this).prev().attr('src').substring(5);
   		
+  		// the button gives way to the reason a segmentation didn't happen.
+  		function failed(reason){
+  		  button.replaceWith("<span class='label label-important'>"+$('<span/>').text(reason).html()+"</span>");
+  		}
+  		
+  		// queue the segmentation and poll the job until it's done.
+  		function poll(id, done){
+  		  $.getJSON('jobs/'+id, function(job){
+  			 if(job.status == 'done'){ done(job); }
+  			 else if(job.status == 'failed'){ failed('segmentation failed: '+job.error); }
+  			 else { setTimeout(function(){ poll(id, done); }, 250); }
+  		  }).fail(function(xhr){ failed('segmentation job lost: '+xhr.status); });
+  		}
+  		
   		$.ajax({
-  		  url: 'image-segmentation/'+src,
+  		  url: 'jobs/image-segmentation/'+src,
   		  type: 'POST',
-  		  success: function(data){
-   			 button.replaceWith("<img src='/segmented/0-"+src+"'/>");
+  		  dataType: 'json',
+  		  success: function(job){ poll(job.id, function(data){
+   			 button.replaceWith("<img src='"+data.image+"'/>");
   			 $("#origin").replaceWith("<img id='origin' src='/imgs/"+src+"'/>");
-   			 $("#0").replaceWith("<img id='0'src='/segmented/0-"+src+"'/>");
-  			 $("#5").replaceWith("<img id='5' src='/segmented/5-"+src+"'/>");
-  			 $("#10").replaceWith("<img id='10' src='/segmented/10-"+src+"'/>");
-  			 $("#15").replaceWith("<img id='15' src='/segmented/15-"+src+"'/>");
-  			 $("#20").replaceWith("<img id='20' src='/segmented/final-"+src+"'/>");
+  			 // a run that stopped early (or came from the cache) has no snapshot
+  			 // for the later iterations; their slots are hidden.
+  			 $.each(['0', '5', '10', '15'], function(i, tag){
+  				 if($.inArray(tag, data.snapshots) >= 0){
+  					 // the sink may still have dropped a frame when it was busy.
+  					 $("#"+tag).replaceWith("<img id='"+tag+"' src='/segmented/"+tag+"-"+src+"' onerror='$(this).hide()'/>");
+  				 }else{
+  					 $("#"+tag).hide();
+  				 }
+  			 });
+  			 $("#20").replaceWith("<img id='20' src='"+data.image+"'/>");
   		
-   		  },
-		  error: function(data){
-	  			 $(this).replaceWith("<img src='/segmented/20-obama-r-0.jpg'/>");
-	  			 $("#0").replaceWith("<img src='/segmented/0-obama-r-0.jpg'/>");
-	  			 $("#5").replaceWith("<img src='/segmented/5-obama-r-0.jpg'/>");
-	  			 $("#10").replaceWith("<img src='/segmented/10-obama-r-0.jpg'/>");
-	  			 $("#15").replaceWith("<img src='/segmented/15-obama-r-0.jpg'/>");
-	  			 $("#20").replaceWith("<img src='/segmented/20-obama-r-0.jpg'/>");
-	  			 
-
+   		  }); },
+		  // 503 when the queue is full.
+		  error: function(xhr){
+	  			 failed(xhr.status == 503 ? 'server busy, try again' : 'segmentation failed: '+xhr.status);
 	  		  }
   		});
   	});
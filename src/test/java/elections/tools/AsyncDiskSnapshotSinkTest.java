@@ -0,0 +1,39 @@
+package elections.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.Test;
+
+public class AsyncDiskSnapshotSinkTest {
+
+	// once flush() returns, everything queued before it is on disk.
+	@Test
+	public void flushWaitsForQueuedSnapshots() throws Exception{
+		File dir = File.createTempFile("snapshots", "");
+		dir.delete();
+		dir.mkdirs();
+		try{
+			AsyncDiskSnapshotSink sink = new AsyncDiskSnapshotSink(dir, 64);
+			BufferedImage image = TestImages.read(TestImages.NAMES[0]);
+			String[] tags = { "0", "5", "10", "final" };
+			for(String tag : tags){
+				sink.snapshot("x.jpg", tag, image);
+			}
+			assertTrue(sink.flush(10*1000));
+			assertEquals(0, sink.getDropped());
+			for(String tag : tags){
+				assertTrue(tag, new File(dir, tag+"-x.jpg").isFile());
+			}
+		}finally{
+			for(File f : dir.listFiles()){
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+}
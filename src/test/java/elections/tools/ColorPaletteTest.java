@@ -0,0 +1,59 @@
+package elections.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class ColorPaletteTest {
+
+	// assigning the 7-bit palette colors instead of every pixel labels nearly
+	// every pixel like the exact run from the same seeds (ColorTableReport
+	// prints the numbers for every number of bits).
+	@Test
+	public void paletteAgreesWithExact() throws Exception{
+		for(String name : TestImages.NAMES){
+			BufferedImage img = TestImages.read(name);
+			int[] seeds = TestImages.seeds(name, img, 5);
+			SegmentationSession exact = TestImages.session(name, img, seeds, TestImages.options());
+			exact.fit();
+			SegmentationOptions options = TestImages.options();
+			options.setQuantizationBits(7);
+			SegmentationSession quantized = TestImages.session(name, img, seeds, options);
+			quantized.fit();
+
+			double agree = PyramidReport.agreement(exact.getLabels(), quantized.getLabels());
+			assertTrue(name+" agreement "+agree, agree >= 0.93);
+		}
+	}
+
+	// palettes built one after another on a thread share its scratch index;
+	// each still has every color once and points every pixel at its own.
+	@Test
+	public void palettesReuseScratchIndex() throws Exception{
+		for(int bits : new int[]{7, 4, 7, 2}){
+			for(String name : TestImages.NAMES){
+				int[] rgb = Rasters.data(Rasters.toIntRGB(TestImages.read(name)));
+				HSVTable table = HSVTable.get(bits);
+				ColorPalette palette = new ColorPalette(rgb, table);
+				BitSet seen = new BitSet(table.size());
+				for(int code : palette.codes){
+					assertTrue(name+" "+bits+" bits: "+code+" twice", !seen.get(code));
+					seen.set(code);
+				}
+				for(int i=0; i < rgb.length; i++){
+					assertEquals(table.index(rgb[i]), palette.codes[palette.entries[i]]);
+				}
+				int total = 0;
+				for(int w : palette.weights){
+					total += w;
+				}
+				assertEquals(rgb.length, total);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package elections.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KMeansEngineTest {
+
+	// the five cluster if/else chain the original KMeansActions.SegmentImage
+	// labeled pixels with, distances and all: a cluster only wins when it is
+	// strictly closer than every other one, anything else is cluster 4.
+	static int chain(float[] hsv, float[] ch, float[] cs, float[] cv){
+		double a = dist(hsv, centroid(0, ch, cs, cv));
+		double b = dist(hsv, centroid(1, ch, cs, cv));
+		double c = dist(hsv, centroid(2, ch, cs, cv));
+		double d = dist(hsv, centroid(3, ch, cs, cv));
+		double e = dist(hsv, centroid(4, ch, cs, cv));
+		if(a < b && a < c && a < d && a < e){
+			return 0;
+		}else if(b < a && b < c && b < d && b < e){
+			return 1;
+		}else if(c < a && c < b && c < d && c < e){
+			return 2;
+		}else if(d < a && d < b && d < c && d < e){
+			return 3;
+		}else{
+			return 4;
+		}
+	}
+
+	static double dist(float[] hsv, float[] hsv0){
+		return
+		Math.pow(Math.pow(Math.abs(hsv[0]-hsv0[0]),2.) +
+				Math.pow(Math.abs(hsv[1]-hsv0[1]),2.) +
+				Math.pow(Math.abs(hsv[2]-hsv0[2]),2.),.5);
+	}
+
+	static float[] centroid(int i, float[] ch, float[] cs, float[] cv){
+		return new float[]{ ch[i], cs[i], cv[i] };
+	}
+
+	static int nearest(float[] hsv, float[] ch, float[] cs, float[] cv){
+		return KMeansEngine.nearest(hsv[0], hsv[1], hsv[2], ch, cs, cv);
+	}
+
+	// random pixels and centroids, where ties practically never happen.
+	@Test
+	public void nearestMatchesChainOnRandomInput(){
+		Random random = new Random(1);
+		float[] ch = new float[5], cs = new float[5], cv = new float[5];
+		for(int round=0; round < 2000; round++){
+			for(int i=0; i < 5; i++){
+				ch[i] = random.nextFloat();
+				cs[i] = random.nextFloat();
+				cv[i] = random.nextFloat();
+			}
+			for(int p=0; p < 50; p++){
+				float[] hsv = { random.nextFloat(), random.nextFloat(), random.nextFloat() };
+				assertEquals(chain(hsv, ch, cs, cv), nearest(hsv, ch, cs, cv));
+			}
+		}
+	}
+
+	// values on a quarter grid, so duplicate centroids and pixels halfway
+	// between two centroids come up all the time; a tie for the minimum goes
+	// to cluster 4 (k-1) even when neither tied cluster is 4.
+	@Test
+	public void nearestMatchesChainOnTies(){
+		Random random = new Random(2);
+		float[] ch = new float[5], cs = new float[5], cv = new float[5];
+		int ties = 0;
+		for(int round=0; round < 2000; round++){
+			for(int i=0; i < 5; i++){
+				ch[i] = random.nextInt(5)/4f;
+				cs[i] = random.nextInt(5)/4f;
+				cv[i] = random.nextInt(5)/4f;
+			}
+			for(int p=0; p < 50; p++){
+				float[] hsv = { random.nextInt(5)/4f, random.nextInt(5)/4f, random.nextInt(5)/4f };
+				int expected = chain(hsv, ch, cs, cv);
+				assertEquals(expected, nearest(hsv, ch, cs, cv));
+				if(expected == 4 && tied(hsv, ch, cs, cv)){
+					ties++;
+				}
+			}
+		}
+		// the grid really does produce ties.
+		assertTrue("ties "+ties, ties > 1000);
+	}
+
+	// two centroids at the same spot nearest to the pixel.
+	@Test
+	public void duplicateNearestGoesToLastCluster(){
+		float[] ch = { 0.1f, 0.5f, 0.5f, 0.9f, 0.9f };
+		float[] cs = { 0.1f, 0.5f, 0.5f, 0.9f, 0.9f };
+		float[] cv = { 0.1f, 0.5f, 0.5f, 0.9f, 0.9f };
+		float[] hsv = { 0.45f, 0.45f, 0.45f };
+		assertEquals(4, chain(hsv, ch, cs, cv));
+		assertEquals(4, nearest(hsv, ch, cs, cv));
+		// a unique nearest centroid still wins.
+		ch[2] = 0.6f;
+		assertEquals(1, chain(hsv, ch, cs, cv));
+		assertEquals(1, nearest(hsv, ch, cs, cv));
+	}
+
+	static boolean tied(float[] hsv, float[] ch, float[] cs, float[] cv){
+		double min = Double.MAX_VALUE;
+		int at = 0;
+		for(int i=0; i < 5; i++){
+			double d = dist(hsv, centroid(i, ch, cs, cv));
+			if(d < min){
+				min = d;
+				at = 1;
+			}else if(d == min){
+				at++;
+			}
+		}
+		return at > 1;
+	}
+
+}
@@ -0,0 +1,63 @@
+package elections.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class PyramidTest {
+
+	// fitting on half the resolution labels nearly every pixel like the full
+	// resolution run from the same seeds (PyramidReport prints the numbers).
+	@Test
+	public void halfResolutionAgreesWithFull() throws Exception{
+		for(String name : TestImages.NAMES){
+			BufferedImage img = TestImages.read(name);
+			int[] seeds = TestImages.seeds(name, img, 5);
+			SegmentationSession full = TestImages.session(name, img, seeds, TestImages.options());
+			full.fit();
+			SegmentationOptions options = TestImages.options();
+			options.setPyramidLevel(1);
+			SegmentationSession half = TestImages.session(name, img, seeds, options);
+			half.fit();
+
+			double agree = PyramidReport.agreement(full.getLabels(), half.getLabels());
+			assertTrue(name+" agreement "+agree, agree >= 0.95);
+		}
+	}
+
+	// every block is its rounded average, edge blocks over the pixels they have.
+	@Test
+	public void downsampleAveragesBlocks(){
+		int[] rgb = { 0x000000, 0x0a0b0c, 0x646464,
+		              0x020406, 0x0a0b0c, 0x646464 };
+		assertArrayEquals(new int[]{ 0x060708, 0x646464 }, Pyramid.downsample(rgb, 3, 2, 2));
+	}
+
+	// an image smaller than one block is fitted at full resolution.
+	@Test
+	public void smallImagesFallBackToFullResolution() throws Exception{
+		assertEquals(0, Pyramid.level(3, 40, 2));
+		assertEquals(2, Pyramid.level(4, 40, 2));
+
+		BufferedImage img = TestImages.read(TestImages.NAMES[0]).getSubimage(0, 0, 12, 12);
+		int[] seeds = TestImages.seeds("small", img, 3);
+		SegmentationOptions options = TestImages.options();
+		options.setK(3);
+		SegmentationSession full = TestImages.session("small", img, seeds, options);
+		full.fit();
+		options.setPyramidLevel(4);
+		SegmentationSession pyramid = TestImages.session("small", img, seeds, options);
+		pyramid.fit();
+		assertArrayEquals(full.getLabels(), pyramid.getLabels());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void levelsAreBounded(){
+		Pyramid.factor(Pyramid.MAX_LEVEL + 1);
+	}
+
+}
@@ -0,0 +1,171 @@
+package elections.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RegionTablesTest {
+
+	static final int WIDTH = 37, HEIGHT = 23;
+
+	// a random image, with the values bunched up so some pixels sit right at
+	// the mean, and a random foreground.
+	static int[] image(Random random){
+		int[] rgb = new int[WIDTH*HEIGHT];
+		for(int i=0; i < rgb.length; i++){
+			rgb[i] = random.nextInt(4) == 0 ? 0x7f7f7f : random.nextInt(0x1000000);
+		}
+		return rgb;
+	}
+
+	static BitSet foreground(Random random){
+		BitSet foreground = new BitSet(WIDTH*HEIGHT);
+		for(int i=0; i < WIDTH*HEIGHT; i++){
+			if(random.nextInt(3) == 0){
+				foreground.set(i);
+			}
+		}
+		return foreground;
+	}
+
+	static int max(int p){
+		return Math.max((p >> 16) & 0xff, Math.max((p >> 8) & 0xff, p & 0xff));
+	}
+
+	// the level 0 binary filter straight from its definition, value over the mean.
+	static boolean[] aboveMean(int[] rgb){
+		double sum = 0;
+		for(int p : rgb){
+			sum += max(p)/255f;
+		}
+		double mean = sum/rgb.length;
+		boolean[] above = new boolean[rgb.length];
+		for(int i=0; i < rgb.length; i++){
+			above[i] = max(rgb[i])/255f > mean;
+		}
+		return above;
+	}
+
+	static boolean[] saturationAbove(int[] rgb, float threshold){
+		boolean[] above = new boolean[rgb.length];
+		float[] hsv = new float[3];
+		for(int i=0; i < rgb.length; i++){
+			int p = rgb[i];
+			Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, hsv);
+			above[i] = hsv[1] > threshold;
+		}
+		return above;
+	}
+
+	// counts of the rectangle clipped to the image by scanning it: pixels,
+	// foreground, above and disagreement.
+	static int[] scan(BitSet foreground, boolean[] above, int x, int y, int w, int h){
+		int[] counts = new int[4];
+		for(int py=Math.max(0, y); py < Math.min(HEIGHT, y + h); py++){
+			for(int px=Math.max(0, x); px < Math.min(WIDTH, x + w); px++){
+				int i = py*WIDTH + px;
+				counts[0]++;
+				if(foreground.get(i)){
+					counts[1]++;
+				}
+				if(above[i]){
+					counts[2]++;
+				}
+				if(foreground.get(i) != above[i]){
+					counts[3]++;
+				}
+			}
+		}
+		return counts;
+	}
+
+	static int percent(int[] counts){
+		return counts[0] == 0 ? 0 : (int)Math.round(100.*counts[1]/counts[0]);
+	}
+
+	// random rectangles, many of them partly or entirely outside the image or
+	// empty, against a scan; level 0 and an extra saturation threshold.
+	@Test
+	public void rectanglesMatchScan(){
+		Random random = new Random(3);
+		for(int round=0; round < 20; round++){
+			int[] rgb = image(random);
+			BitSet foreground = foreground(random);
+			RegionTables tables = RegionTables.build(rgb, WIDTH, HEIGHT, foreground,
+					new RegionTables.Threshold(ImageStatistics.SATURATION, 0.4f));
+			boolean[][] levels = { aboveMean(rgb), saturationAbove(rgb, 0.4f) };
+			for(int r=0; r < 200; r++){
+				int x = random.nextInt(WIDTH + 20) - 10, y = random.nextInt(HEIGHT + 20) - 10;
+				int w = random.nextInt(WIDTH + 20) - 5, h = random.nextInt(HEIGHT + 20) - 5;
+				String at = x+","+y+" "+w+"x"+h;
+				for(int level=0; level < levels.length; level++){
+					int[] counts = scan(foreground, levels[level], x, y, w, h);
+					assertEquals(at, counts[0], tables.getPixels(x, y, w, h));
+					assertEquals(at, counts[1], tables.getForeground(x, y, w, h));
+					assertEquals(at+" level "+level, counts[2], tables.getAbove(level, x, y, w, h));
+					assertEquals(at+" level "+level, counts[3], tables.getDisagreement(level, x, y, w, h));
+				}
+			}
+		}
+	}
+
+	// quadrants and grid cells against a scan of each; the cells cover every
+	// pixel once.
+	@Test
+	public void quadrantsAndGridMatchScan(){
+		Random random = new Random(4);
+		boolean[] none = new boolean[WIDTH*HEIGHT];
+		for(int round=0; round < 20; round++){
+			int[] rgb = image(random);
+			BitSet foreground = foreground(random);
+			RegionTables tables = RegionTables.build(rgb, WIDTH, HEIGHT, foreground);
+			int halfX = WIDTH/2, halfY = HEIGHT/2;
+			assertEquals(percent(scan(foreground, none, 0, 0, halfX, halfY)), tables.getQuadrant(1));
+			assertEquals(percent(scan(foreground, none, halfX, 0, WIDTH, halfY)), tables.getQuadrant(2));
+			assertEquals(percent(scan(foreground, none, halfX, halfY, WIDTH, HEIGHT)), tables.getQuadrant(3));
+			assertEquals(percent(scan(foreground, none, 0, halfY, halfX, HEIGHT)), tables.getQuadrant(4));
+
+			boolean[] above = aboveMean(rgb);
+			for(int n=2; n <= 16; n++){
+				int[] grid = tables.getGrid(n);
+				double[] difference = tables.getDifferenceGrid(n);
+				int pixels = 0;
+				for(int j=0; j < n; j++){
+					for(int i=0; i < n; i++){
+						int x0 = i*WIDTH/n, x1 = (i + 1)*WIDTH/n, y0 = j*HEIGHT/n, y1 = (j + 1)*HEIGHT/n;
+						int[] counts = scan(foreground, above, x0, y0, x1 - x0, y1 - y0);
+						pixels += counts[0];
+						assertEquals(n+" cell "+i+","+j, percent(counts), grid[j*n + i]);
+						assertEquals(n+" cell "+i+","+j, (double) counts[3]/Math.max(1, counts[0]), difference[j*n + i], 0);
+					}
+				}
+				assertEquals(WIDTH*HEIGHT, pixels);
+			}
+		}
+	}
+
+	// the same quadrants and binary filter difference as ImageStatistics on
+	// the bundled images.
+	@Test
+	public void matchesImageStatistics() throws Exception{
+		for(String name : TestImages.NAMES){
+			BufferedImage img = TestImages.read(name);
+			int[] rgb = Rasters.data(Rasters.toIntRGB(img));
+			SegmentationSession session = TestImages.session(name, img, TestImages.seeds(name, img, 5), TestImages.options());
+			session.fit();
+			int width = session.getWidth(), height = session.getHeight();
+			ImageStatistics stats = ImageStatistics.compute(rgb, width, height, session.getForeground());
+			RegionTables tables = RegionTables.build(rgb, width, height, session.getForeground());
+			for(int q=1; q <= 4; q++){
+				assertEquals(name+" Q"+q, stats.getQuadrant(q), tables.getQuadrant(q));
+			}
+			assertEquals(name, stats.getBinaryFilterDifference(), tables.getBinaryFilterDifference(), 0);
+		}
+	}
+
+}
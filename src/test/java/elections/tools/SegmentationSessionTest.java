@@ -0,0 +1,73 @@
+package elections.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SegmentationSessionTest {
+
+	// the same segmentation on several threads at once, each also splitting its
+	// assignment over the fork/join pool, gives what one thread alone gives.
+	@Test
+	public void concurrentSessionsMatchSerial() throws Exception{
+		int threads = 4, runs = 16;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try{
+			for(final String name : TestImages.NAMES){
+				final BufferedImage img = TestImages.read(name);
+				final int[] seeds = TestImages.seeds(name, img, 5);
+				SegmentationSession serial = TestImages.session(name, img, seeds, TestImages.options());
+				serial.fit();
+
+				List<Future<SegmentationSession>> futures = new ArrayList<Future<SegmentationSession>>();
+				for(int i=0; i < runs; i++){
+					futures.add(pool.submit(new Callable<SegmentationSession>(){
+						public SegmentationSession call(){
+							SegmentationOptions options = TestImages.options();
+							options.setParallelism(4);
+							SegmentationSession session = TestImages.session(name, img, seeds, options);
+							session.fit();
+							return session;
+						}
+					}));
+				}
+				for(Future<SegmentationSession> f : futures){
+					SegmentationSession session = f.get();
+					assertArrayEquals(name, serial.getLabels(), session.getLabels());
+					assertArrayEquals(name, serial.getCentroids(), session.getCentroids());
+				}
+			}
+		}finally{
+			pool.shutdown();
+		}
+	}
+
+	// the bounded assignment skips distances, never changes a label.
+	@Test
+	public void boundedMatchesPlainEveryIteration() throws Exception{
+		for(String name : TestImages.NAMES){
+			BufferedImage img = TestImages.read(name);
+			SegmentationOptions plain = TestImages.options();
+			plain.setBounded(false);
+			SegmentationOptions bounded = plain.copy();
+			bounded.setBounded(true);
+			int[] seeds = TestImages.seeds(name, img, plain.getK());
+
+			SegmentationSession a = TestImages.session(name, img, seeds, plain), b = TestImages.session(name, img, seeds, bounded);
+			for(int i=0; i < plain.getMaxIterations() && !a.converged(); i++){
+				a.iterate();
+				b.iterate();
+				assertArrayEquals(name+" iteration "+i, a.labels(), b.labels());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package elections.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elections.model.Photo;
+
+public class SvmModelTest {
+
+	// photos whose features scatter around one of two centers.
+	static List<Photo> photos(int count, double spread, Random random){
+		List<Photo> photos = new ArrayList<Photo>();
+		for(int i=0; i < count; i++){
+			boolean positive = i%2 == 0;
+			double[] features = new double[9];
+			for(int f=0; f < features.length; f++){
+				double center = f >= 2 && f <= 5 ? (positive ? 60 : 40) : (positive ? 0.6 : 0.4);
+				double scale = f >= 2 && f <= 5 ? 100 : 1;
+				features[f] = center + spread*scale*random.nextGaussian();
+			}
+			Photo photo = new Photo();
+			photo.setFeatures(features);
+			photo.setPositive(positive);
+			photos.add(photo);
+		}
+		return photos;
+	}
+
+	@Test
+	public void separatesTwoClusters(){
+		Random random = new Random(7);
+		SvmModel model = SvmTrainer.train(photos(200, 0.05, random), 1, 0.5);
+		int right = 0;
+		List<Photo> test = photos(200, 0.05, random);
+		for(Photo photo : test){
+			if(model.predict(photo) == photo.isPositive()){
+				right++;
+			}
+		}
+		assertTrue(right+" of "+test.size(), right >= 0.95*test.size());
+	}
+
+	// the solution is feasible and meets the KKT conditions to within eps,
+	// with the gradient worked out again from scratch.
+	@Test
+	public void solverMeetsKkt(){
+		Random random = new Random(11);
+		int n = 150;
+		float[][] x = new float[n][4];
+		boolean[] positive = new boolean[n];
+		for(int i=0; i < n; i++){
+			for(int f=0; f < 4; f++){
+				x[i][f] = random.nextFloat();
+			}
+			// overlapping classes, so some multipliers end up at C.
+			positive[i] = x[i][0] + x[i][1] + 0.3*random.nextGaussian() > 1;
+		}
+		double c = 4, gamma = 2, eps = 1e-3;
+		SvmSolver solver = new SvmSolver(x, positive, c, gamma, eps, 1024);
+		double rho = solver.solve();
+		double[] alpha = solver.getAlpha();
+
+		double balance = 0, up = Double.NEGATIVE_INFINITY, low = Double.POSITIVE_INFINITY;
+		int free = 0;
+		for(int i=0; i < n; i++){
+			assertTrue(alpha[i] >= 0 && alpha[i] <= c);
+			int yi = solver.getY(i);
+			balance += yi*alpha[i];
+			double g = -1;
+			for(int j=0; j < n; j++){
+				g += yi*solver.getY(j)*SvmSolver.kernel(x[i], x[j], gamma)*alpha[j];
+			}
+			// -y_i G_i over I_up, the most it can be, and over I_low.
+			if((yi == 1 && alpha[i] < c) || (yi == -1 && alpha[i] > 0)){
+				up = Math.max(up, -yi*g);
+			}
+			if((yi == 1 && alpha[i] > 0) || (yi == -1 && alpha[i] < c)){
+				low = Math.min(low, -yi*g);
+			}
+			if(alpha[i] > 0 && alpha[i] < c){
+				free++;
+				assertEquals(rho, yi*g, 10*eps);
+			}
+		}
+		assertEquals(0, balance, 1e-9);
+		assertTrue("violation "+(up - low), up - low < eps + 1e-6);
+		assertTrue(free > 0);
+	}
+
+	@Test
+	public void savesAndLoads() throws Exception{
+		Random random = new Random(3);
+		List<Photo> photos = photos(100, 0.2, random);
+		SvmModel model = SvmTrainer.train(photos, 8, 0.125);
+		File file = File.createTempFile("svm", ".model");
+		try{
+			model.save(file);
+			SvmModel loaded = SvmModel.load(file);
+			assertEquals(model.getSupportVectors(), loaded.getSupportVectors());
+			for(Photo photo : photos(50, 0.2, random)){
+				assertEquals(model.decision(photo), loaded.decision(photo), 0);
+			}
+		}finally{
+			file.delete();
+		}
+	}
+
+}
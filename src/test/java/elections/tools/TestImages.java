@@ -0,0 +1,38 @@
+package elections.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+// a few of the bundled photos, and sessions over them anchored on the center
+// the way the reports run them.
+class TestImages {
+
+	static final String[] NAMES = { "obama-c-0.jpg", "obama-r-1.jpg", "romney-c-0.jpg", "romney-r-1.jpg" };
+
+	static BufferedImage read(String name) throws IOException{
+		BufferedImage img = ImageIO.read(TestImages.class.getResource("/imgs/"+name));
+		if(img == null){
+			throw new IOException("can't read "+name);
+		}
+		return img;
+	}
+
+	static int[] seeds(String name, BufferedImage img, int k){
+		return SegmentationSession.seeds(img, k, new Random(name.hashCode()));
+	}
+
+	static SegmentationSession session(String name, BufferedImage img, int[] seeds, SegmentationOptions options){
+		return new SegmentationSession(name, img, seeds,
+				img.getWidth()/2, img.getHeight()/2, img.getWidth()/2, img.getHeight()/2, options);
+	}
+
+	static SegmentationOptions options(){
+		SegmentationOptions options = new SegmentationOptions();
+		options.setParallelism(1);
+		return options;
+	}
+
+}
@@ -0,0 +1,23 @@
+package elections.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WarmStartSeedingTest {
+
+	// the anchor pixel is cluster 0, in place of the saved centroid nearest to it.
+	@Test
+	public void anchorReplacesTheClosestCentroid(){
+		WarmStartSeeding seeding = new WarmStartSeeding("test", new int[]{ 0x000000, 0xff0000, 0x00ff00, 0xffffff });
+		int[] rgb = { 0x101010, 0x10f010, 0xfafafa };
+		assertArrayEquals(new int[]{ 0x10f010, 0x000000, 0xff0000, 0xffffff },
+				seeding.seeds(IntBuffer.wrap(rgb), 3, 1, 4, 1, new Random(1)));
+		assertArrayEquals(new int[]{ 0x101010, 0xff0000, 0x00ff00, 0xffffff },
+				seeding.seeds(IntBuffer.wrap(rgb), 3, 1, 4, 0, new Random(1)));
+	}
+
+}